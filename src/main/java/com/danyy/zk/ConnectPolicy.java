@@ -0,0 +1,16 @@
+package com.danyy.zk;
+
+/**
+ * 异步连接时，首次连接成功之前发起的操作的处理策略
+ */
+public enum ConnectPolicy {
+    /**
+     * 同步操作阻塞等待首次连接成功，最长等待连接超时时间；
+     * 异步操作直接发送，由zookeeper客户端在连接成功后发出
+     */
+    WAIT,
+    /**
+     * 立即抛出ZkClientException
+     */
+    FAIL_FAST
+}
@@ -0,0 +1,80 @@
+package com.danyy.zk;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * 限制同时在途的异步请求数
+ * 发送请求前获取许可，请求完成后（在zookeeper事件线程中）归还许可，
+ * 许可用完时调用线程阻塞，避免一次性向服务端堆积过多请求
+ */
+public class InFlightLimiter {
+
+    private final int maxInFlight;
+    private final Semaphore permits;
+
+    /**
+     * @param maxInFlight 最大在途请求数
+     */
+    public InFlightLimiter(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be greater than 0.");
+        }
+        this.maxInFlight = maxInFlight;
+        this.permits = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * 获取许可后发送请求，许可不足时阻塞
+     *
+     * @param request 发送请求并返回其异步结果
+     * @return 请求的异步结果
+     * @throws ZkClientException 等待许可时被中断
+     */
+    public <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> request) throws ZkClientException {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ZkClientException("Wait in-flight permit interrupted.", e);
+        }
+        CompletableFuture<T> future;
+        try {
+            future = request.get();
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+        future.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T t, Throwable throwable) {
+                permits.release();
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 等待所有在途请求完成
+     *
+     * @throws ZkClientException 等待时被中断
+     */
+    public void drain() throws ZkClientException {
+        try {
+            permits.acquire(maxInFlight);
+            permits.release(maxInFlight);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ZkClientException("Wait in-flight requests interrupted.", e);
+        }
+    }
+
+    /**
+     * @return 当前在途请求数
+     */
+    public int inFlight() {
+        return maxInFlight - permits.availablePermits();
+    }
+}
@@ -0,0 +1,280 @@
+package com.danyy.zk;
+
+import com.danyy.zk.metrics.MetricsCollector;
+import com.danyy.zk.metrics.ZkMetrics;
+import org.apache.zookeeper.KeeperException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * 执行操作：按RetryPolicy重试，并记录操作指标
+ * 1. 同步操作：连接断开时挂起，直到ZkWatcher收到SyncConnected再执行；
+ *    连接正常但返回可重试错误时，按退避时间等待后重试
+ * 2. 异步操作：失败后在调度线程中按退避时间重新发送，不阻塞调用线程
+ * 3. 指标：每个操作结束时记录一次，耗时包含重试和等待连接的时间
+ */
+class OperationExecutor {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(OperationExecutor.class);
+
+    //异步重试调度线程，所有客户端共享
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r);
+            thread.setDaemon(true);
+            thread.setName("zkClient-retry");
+            return thread;
+        }
+    });
+
+    private final ZkClient client;
+    private final RetryPolicy policy;
+    //内置指标
+    private final ZkMetrics metrics;
+    //用户指标，可以为null
+    private final MetricsCollector collector;
+
+    OperationExecutor(ZkClient client, RetryPolicy policy, ZkMetrics metrics, MetricsCollector collector) {
+        this.client = client;
+        this.policy = policy;
+        this.metrics = metrics;
+        this.collector = collector;
+    }
+
+    ZkMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 执行同步操作
+     *
+     * @param name      操作名
+     * @param path      节点路径
+     * @param bytes     写入的数据大小
+     * @param message   失败时的异常描述
+     * @param op        操作
+     * @param retryable 操作是否可以安全重试，如顺序节点的创建重试可能产生重复节点
+     * @return 操作结果
+     */
+    <T> T call(String name, String path, int bytes, String message, Callable<T> op, boolean retryable) throws ZkClientException {
+        return this.call(name, path, bytes, message, op, retryable, false);
+    }
+
+    /**
+     * 执行同步操作
+     *
+     * @param sessionBound 操作结果属于当前会话（如临时节点的创建），会话超时后在新会话中重试会改变结果的归属，不重试
+     */
+    <T> T call(String name, String path, int bytes, String message, Callable<T> op, boolean retryable, boolean sessionBound) throws ZkClientException {
+        long start = System.nanoTime();
+        try {
+            T result = this.execute(message, op, retryable, sessionBound);
+            this.record(name, path, start, bytes + size(result), null);
+            return result;
+        } catch (ZkClientException e) {
+            this.record(name, path, start, bytes, e);
+            throw e;
+        }
+    }
+
+    private <T> T execute(String message, Callable<T> op, boolean retryable, boolean sessionBound) throws ZkClientException {
+        if (policy.isNone() || !retryable) {
+            client.checkStatus();
+            try {
+                return op.call();
+            } catch (Exception e) {
+                throw wrap(message, e);
+            }
+        }
+        long start = System.currentTimeMillis();
+        for (int retries = 1; ; retries++) {
+            try {
+                client.checkStatus();
+                return op.call();
+            } catch (Exception e) {
+                ZkClientException error = wrap(message, e);
+                long elapsed = System.currentTimeMillis() - start;
+                if (!this.isRetryable(error, sessionBound) || !policy.allowRetry(retries, elapsed)) {
+                    throw error;
+                }
+                this.backoff(error, retries, policy.getMaxElapsedMs() - elapsed);
+            }
+        }
+    }
+
+    /**
+     * 包装同步读操作，执行时按策略重试并记录指标
+     */
+    <T> Callable<T> wrap(final String name, final String path, final String message, final Callable<T> op, final boolean retryable) {
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return OperationExecutor.this.call(name, path, 0, message, op, retryable);
+            }
+        };
+    }
+
+    /**
+     * 执行异步操作
+     *
+     * @param name      操作名
+     * @param path      节点路径
+     * @param bytes     写入的数据大小
+     * @param op        发送请求并返回其异步结果
+     * @param retryable 操作是否可以安全重试
+     * @return 操作结果
+     */
+    <T> CompletableFuture<T> callAsync(final String name, final String path, final int bytes, Supplier<CompletableFuture<T>> op, boolean retryable) {
+        return this.callAsync(name, path, bytes, op, retryable, false);
+    }
+
+    /**
+     * 执行异步操作
+     *
+     * @param sessionBound 操作结果属于当前会话，会话超时后不重试
+     */
+    <T> CompletableFuture<T> callAsync(final String name, final String path, final int bytes, Supplier<CompletableFuture<T>> op, boolean retryable, boolean sessionBound) {
+        final long start = System.nanoTime();
+        CompletableFuture<T> result;
+        if (policy.isNone() || !retryable) {
+            result = op.get();
+        } else {
+            result = new CompletableFuture<T>();
+            this.attemptAsync(op, result, 1, System.currentTimeMillis(), sessionBound);
+        }
+        result.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T value, Throwable throwable) {
+                if (throwable == null) {
+                    record(name, path, start, bytes + size(value), null);
+                } else {
+                    record(name, path, start, bytes, throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable);
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 包装异步读操作，执行时按策略重试并记录指标
+     */
+    <T> Supplier<CompletableFuture<T>> wrapAsync(final String name, final String path, final Supplier<CompletableFuture<T>> op, final boolean retryable) {
+        return new Supplier<CompletableFuture<T>>() {
+            @Override
+            public CompletableFuture<T> get() {
+                return callAsync(name, path, 0, op, retryable);
+            }
+        };
+    }
+
+    private <T> void attemptAsync(final Supplier<CompletableFuture<T>> op, final CompletableFuture<T> result, final int retries, final long start,
+                                  final boolean sessionBound) {
+        op.get().whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T value, Throwable throwable) {
+                if (throwable == null) {
+                    result.complete(value);
+                    return;
+                }
+                Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+                long elapsed = System.currentTimeMillis() - start;
+                if (!(cause instanceof ZkClientException) || !isRetryable((ZkClientException) cause, sessionBound) || !policy.allowRetry(retries, elapsed)) {
+                    result.completeExceptionally(cause);
+                    return;
+                }
+                long sleep = Math.min(policy.getSleepTime(retries), policy.getMaxElapsedMs() - elapsed);
+                SCHEDULER.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        attemptAsync(op, result, retries + 1, start, sessionBound);
+                    }
+                }, Math.max(sleep, 0), TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    /**
+     * 重试前等待：连接断开时挂起等待连接恢复，否则按退避时间等待
+     */
+    private void backoff(ZkClientException error, int retries, long remaining) throws ZkClientException {
+        try {
+            // zookeeper事件线程负责投递SyncConnected，不能在事件线程中挂起等待连接
+            if (!client.isConnection() && !isEventThread()) {
+                client.awaitConnected(remaining);
+            } else {
+                Thread.sleep(Math.max(Math.min(policy.getSleepTime(retries), remaining), 0));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw error;
+        }
+    }
+
+    /**
+     * @return 当前线程是否是zookeeper事件线程
+     */
+    static boolean isEventThread() {
+        return Thread.currentThread().getName().endsWith("-EventThread");
+    }
+
+    /**
+     * 可重试的错误：可重试的zookeeper错误码，或未连接到服务端
+     * 属于会话的操作遇到会话超时时不重试
+     */
+    boolean isRetryable(ZkClientException error, boolean sessionBound) {
+        KeeperException.Code code = error.getCode();
+        if (sessionBound && code == KeeperException.Code.SESSIONEXPIRED) {
+            return false;
+        }
+        if (code != null) {
+            return RetryPolicy.isRetryable(code);
+        }
+        return !(error.getCause() instanceof InterruptedException) && !client.isConnection();
+    }
+
+    /**
+     * 记录操作指标
+     *
+     * @param error 为null表示成功
+     */
+    private void record(String name, String path, long start, int bytes, Throwable error) {
+        long latency = System.nanoTime() - start;
+        KeeperException.Code code = KeeperException.Code.OK;
+        if (error != null) {
+            code = error instanceof ZkClientException ? ((ZkClientException) error).getCode() : null;
+            if (code == null) {
+                code = client.isConnection() ? KeeperException.Code.SYSTEMERROR : KeeperException.Code.CONNECTIONLOSS;
+            }
+        }
+        metrics.record(name, path, latency, bytes, code);
+        if (collector != null) {
+            try {
+                collector.record(name, path, latency, bytes, code);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Metrics collector error, op:{}", name, e);
+            }
+        }
+    }
+
+    private static int size(Object result) {
+        return result instanceof byte[] ? ((byte[]) result).length : 0;
+    }
+
+    private static ZkClientException wrap(String message, Exception e) {
+        if (e instanceof ZkClientException) {
+            return (ZkClientException) e;
+        }
+        return new ZkClientException(message, e);
+    }
+}
@@ -0,0 +1,167 @@
+package com.danyy.zk;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 读请求合并（single-flight）
+ * 相同的读请求（操作、路径、watch标志都相同）已经在途时，后来的请求不再发送，直接共享在途请求的结果
+ * <p>
+ * 1. 同步与异步请求分开合并：异步结果在zookeeper事件线程中完成，
+ * 若同步请求在事件线程（如watcher回调）中等待异步结果会死锁；
+ * 事件线程中的同步请求不参与合并，直接发送：被共享的请求可能在重试前挂起等待重连，
+ * 而重连事件需要由事件线程投递，事件线程等待它会一直阻塞到重试超时
+ * 2. 本客户端对某路径发起写操作时，该路径（及其父节点的子节点列表）的在途读请求不再被后来的请求共享，
+ * 保证同一会话写后读能读到自己的写入
+ */
+class ReadCoalescer {
+
+    static final String GET_DATA = "getData";
+    static final String GET_CHILDREN = "getChildren";
+    static final String EXISTS = "exists";
+
+    //共享结果的复制方法，避免多个调用方修改同一个对象
+    static final Function<byte[], byte[]> COPY_DATA = new Function<byte[], byte[]>() {
+        @Override
+        public byte[] apply(byte[] data) {
+            return data == null ? null : data.clone();
+        }
+    };
+    static final Function<List<String>, List<String>> COPY_CHILDREN = new Function<List<String>, List<String>>() {
+        @Override
+        public List<String> apply(List<String> children) {
+            return children == null ? null : new ArrayList<String>(children);
+        }
+    };
+    static final Function<Boolean, Boolean> COPY_NONE = Function.identity();
+
+    //在途请求
+    private final ConcurrentHashMap<String, CompletableFuture<?>> inflight = new ConcurrentHashMap<String, CompletableFuture<?>>();
+    //实际发送的读请求数
+    private final AtomicLong requests = new AtomicLong();
+    //被合并（未发送）的读请求数
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * 执行同步读请求，相同请求在途时等待并共享其结果
+     *
+     * @param op      操作名
+     * @param path    节点路径
+     * @param watcher 是否设置watch
+     * @param read    实际的同步读操作
+     * @param copy    共享结果的复制方法
+     * @return 读取结果
+     */
+    @SuppressWarnings("unchecked")
+    <T> T execute(String op, String path, boolean watcher, Callable<T> read, Function<T, T> copy) throws ZkClientException {
+        if (OperationExecutor.isEventThread()) {
+            requests.incrementAndGet();
+            try {
+                return read.call();
+            } catch (Exception e) {
+                throw e instanceof ZkClientException ? (ZkClientException) e : new ZkClientException(op + " node " + path, e);
+            }
+        }
+        String key = key("s", op, path, watcher);
+        CompletableFuture<T> mine = new CompletableFuture<T>();
+        CompletableFuture<T> existing = (CompletableFuture<T>) inflight.putIfAbsent(key, mine);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return copy.apply(ZkClient.await(existing));
+        }
+        requests.incrementAndGet();
+        try {
+            T value = read.call();
+            inflight.remove(key, mine);
+            mine.complete(value);
+            return value;
+        } catch (Exception e) {
+            inflight.remove(key, mine);
+            ZkClientException error = e instanceof ZkClientException ? (ZkClientException) e : new ZkClientException(op + " node " + path, e);
+            mine.completeExceptionally(error);
+            throw error;
+        }
+    }
+
+    /**
+     * 执行异步读请求，相同请求在途时共享其结果
+     *
+     * @param op      操作名
+     * @param path    节点路径
+     * @param watcher 是否设置watch
+     * @param read    发送实际的异步读请求
+     * @param copy    共享结果的复制方法
+     * @return 读取结果
+     */
+    @SuppressWarnings("unchecked")
+    <T> CompletableFuture<T> executeAsync(String op, String path, boolean watcher, Supplier<CompletableFuture<T>> read, Function<T, T> copy) {
+        final String key = key("a", op, path, watcher);
+        final CompletableFuture<T> mine = new CompletableFuture<T>();
+        CompletableFuture<T> existing = (CompletableFuture<T>) inflight.putIfAbsent(key, mine);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return existing.thenApply(copy);
+        }
+        requests.incrementAndGet();
+        read.get().whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T value, Throwable throwable) {
+                // 先移除再完成，结果返回后发起的请求不会再共享该结果
+                inflight.remove(key, mine);
+                if (throwable != null) {
+                    mine.completeExceptionally(throwable);
+                } else {
+                    mine.complete(value);
+                }
+            }
+        });
+        return mine;
+    }
+
+    /**
+     * 路径发生写操作，之后发起的读请求不再共享之前的在途请求
+     *
+     * @param path 被写的节点路径
+     */
+    void invalidate(String path) {
+        if (inflight.isEmpty()) {
+            return;
+        }
+        for (String mode : new String[]{"s", "a"}) {
+            for (boolean watcher : new boolean[]{true, false}) {
+                inflight.remove(key(mode, GET_DATA, path, watcher));
+                inflight.remove(key(mode, GET_CHILDREN, path, watcher));
+                inflight.remove(key(mode, EXISTS, path, watcher));
+                int index = path.lastIndexOf('/');
+                if (index >= 0) {
+                    inflight.remove(key(mode, GET_CHILDREN, index == 0 ? "/" : path.substring(0, index), watcher));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 实际发送的读请求数
+     */
+    long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return 被合并的读请求数
+     */
+    long getCoalesced() {
+        return coalesced.get();
+    }
+
+    private static String key(String mode, String op, String path, boolean watcher) {
+        return mode + (watcher ? "w:" : ":") + op + ":" + path;
+    }
+}
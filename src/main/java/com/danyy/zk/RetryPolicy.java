@@ -0,0 +1,114 @@
+package com.danyy.zk;
+
+import org.apache.zookeeper.KeeperException;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 操作重试策略
+ * 指数退避并加入随机抖动，避免大量客户端在集群恢复时同时重试；
+ * 重试次数和总耗时都不超过上限
+ * <pre>
+ * // 初始等待100ms，最长等待5s，最多重试10次，总耗时不超过30s
+ * RetryPolicy.exponentialBackoff(100, 5000, 10, 30000);
+ * </pre>
+ */
+public class RetryPolicy {
+
+    private static final RetryPolicy NONE = new RetryPolicy(0, 0, 0, 0);
+
+    //初始等待时间
+    private final long baseSleepMs;
+    //单次最长等待时间
+    private final long maxSleepMs;
+    //最大重试次数
+    private final int maxRetries;
+    //从第一次执行开始计算的最长总耗时
+    private final long maxElapsedMs;
+
+    private RetryPolicy(long baseSleepMs, long maxSleepMs, int maxRetries, long maxElapsedMs) {
+        this.baseSleepMs = baseSleepMs;
+        this.maxSleepMs = maxSleepMs;
+        this.maxRetries = maxRetries;
+        this.maxElapsedMs = maxElapsedMs;
+    }
+
+    /**
+     * 不重试，失败时立即抛出异常
+     *
+     * @return RetryPolicy
+     */
+    public static RetryPolicy none() {
+        return NONE;
+    }
+
+    /**
+     * 指数退避重试
+     *
+     * @param baseSleepMs  初始等待时间
+     * @param maxSleepMs   单次最长等待时间
+     * @param maxRetries   最大重试次数
+     * @param maxElapsedMs 最长总耗时，包括等待连接恢复的时间
+     * @return RetryPolicy
+     */
+    public static RetryPolicy exponentialBackoff(long baseSleepMs, long maxSleepMs, int maxRetries, long maxElapsedMs) {
+        if (baseSleepMs < 1 || maxSleepMs < baseSleepMs || maxRetries < 0 || maxElapsedMs < 0) {
+            throw new IllegalArgumentException("Illegal retry policy argument.");
+        }
+        return new RetryPolicy(baseSleepMs, maxSleepMs, maxRetries, maxElapsedMs);
+    }
+
+    /**
+     * 是否允许再次重试
+     *
+     * @param retries   将要进行的是第几次重试，从1开始
+     * @param elapsedMs 已耗时
+     * @return boolean
+     */
+    public boolean allowRetry(int retries, long elapsedMs) {
+        return retries <= maxRetries && elapsedMs < maxElapsedMs;
+    }
+
+    /**
+     * 第retries次重试前的等待时间
+     * 退避上限为 min(maxSleepMs, baseSleepMs * 2^(retries-1))，实际等待时间在上限的[1/2, 1]之间随机
+     *
+     * @param retries 第几次重试，从1开始
+     * @return 毫秒数
+     */
+    public long getSleepTime(int retries) {
+        int shift = Math.min(Math.max(retries - 1, 0), 30);
+        // 先与上限比较再移位，避免溢出
+        long ceiling = baseSleepMs > (maxSleepMs >> shift) ? maxSleepMs : baseSleepMs << shift;
+        long half = ceiling / 2;
+        return half + ThreadLocalRandom.current().nextLong(ceiling - half + 1);
+    }
+
+    public long getMaxElapsedMs() {
+        return maxElapsedMs;
+    }
+
+    public boolean isNone() {
+        return maxRetries == 0;
+    }
+
+    /**
+     * 判断错误是否可以重试
+     * 连接断开、请求超时、会话超时（客户端会自动重建会话）可以重试，
+     * 节点不存在、已存在、版本不一致等由数据状态决定的错误重试也不会成功
+     *
+     * @param code 错误码
+     * @return boolean
+     */
+    public static boolean isRetryable(KeeperException.Code code) {
+        switch (code) {
+            case CONNECTIONLOSS:
+            case OPERATIONTIMEOUT:
+            case SESSIONEXPIRED:
+            case SESSIONMOVED:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
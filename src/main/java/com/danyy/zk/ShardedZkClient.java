@@ -0,0 +1,387 @@
+package com.danyy.zk;
+
+import com.danyy.zk.cache.TreeCache;
+import com.danyy.zk.listener.BatchListener;
+import com.danyy.zk.listener.Listener;
+import com.danyy.zk.listener.ListenerHandle;
+import com.danyy.zk.listener.RecoveryListener;
+import com.danyy.zk.listener.StateListener;
+import com.danyy.zk.lock.DistributedSemaphore;
+import com.danyy.zk.lock.Lock;
+import com.danyy.zk.lock.ReadWriteLock;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.data.Stat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多会话zookeeper客户端
+ * 持有N个ZkClient（每个都有独立的会话、ZkWatcher和WatcherProcess），
+ * 操作按路径前缀的一致性hash路由到其中一个会话：
+ * 1. 相同前缀的路径总在同一个会话上执行，单个路径上的操作顺序与单会话时一致
+ * 2. 不同前缀的读写、watch事件分散在多个socket和事件线程上并行处理
+ * <p>
+ * 所有会话访问的是同一份数据，跨前缀的操作（如deleteRecursive）在任一会话上执行都是正确的，
+ * 只是不同会话之间没有顺序保证
+ */
+public class ShardedZkClient {
+
+    //每个会话在hash环上的虚拟节点数
+    private static final int VIRTUAL_NODES = 160;
+
+    private final List<ZkClient> clients;
+    //一致性hash环
+    private final TreeMap<Long, ZkClient> ring = new TreeMap<Long, ZkClient>();
+    //参与路由的路径层数，如为2时 /app/service/a 按 /app/service 路由
+    private final int prefixDepth;
+
+    /**
+     * @param hosts  zookeeper服务地址 10.0.1.121:2181,10.0.1.131:2181
+     * @param shards 会话数
+     */
+    public ShardedZkClient(String hosts, int shards) throws ZkClientException {
+        this(hosts, shards, 2, 3000, 3000, 1);
+    }
+
+    /**
+     * @param hosts             zookeeper服务地址 10.0.1.121:2181,10.0.1.131:2181
+     * @param shards            会话数
+     * @param prefixDepth       参与路由的路径层数
+     * @param sessionTimeout    会话超时时间
+     * @param connTimeout       连接超时时间
+     * @param watcherThreadSize 每个会话处理watcher的线程数
+     * @throws ZkClientException
+     */
+    public ShardedZkClient(String hosts, int shards, int prefixDepth, int sessionTimeout, int connTimeout, int watcherThreadSize) throws ZkClientException {
+        if (shards < 1 || prefixDepth < 1) {
+            throw new ZkClientException("shards and prefixDepth must be greater than 0.");
+        }
+        this.prefixDepth = prefixDepth;
+        List<ZkClient> list = new ArrayList<ZkClient>(shards);
+        try {
+            // 所有会话并行连接，总耗时与单个会话相同
+            for (int i = 0; i < shards; i++) {
+                list.add(ZkClient.builder(hosts).sessionTimeout(sessionTimeout).connTimeout(connTimeout)
+                        .watcherThreadSize(watcherThreadSize).asyncConnect(true).build());
+            }
+            long deadline = System.currentTimeMillis() + connTimeout;
+            for (ZkClient client : list) {
+                client.connected().get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            }
+        } catch (Exception e) {
+            for (ZkClient client : list) {
+                client.close();
+            }
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            throw e instanceof ZkClientException ? (ZkClientException) e : new ZkClientException("zookeeper connection timeout. host: " + hosts, e);
+        }
+        this.clients = Collections.unmodifiableList(list);
+        for (int i = 0; i < shards; i++) {
+            for (int v = 0; v < VIRTUAL_NODES; v++) {
+                ring.put(hash("shard-" + i + "-" + v), list.get(i));
+            }
+        }
+    }
+
+    /**
+     * 获取路径所路由到的客户端
+     *
+     * @param path 节点路径
+     * @return ZkClient
+     */
+    public ZkClient getClient(String path) {
+        Map.Entry<Long, ZkClient> entry = ring.ceilingEntry(hash(prefix(path)));
+        return entry == null ? ring.firstEntry().getValue() : entry.getValue();
+    }
+
+    /**
+     * @return 所有会话的客户端
+     */
+    public List<ZkClient> getClients() {
+        return clients;
+    }
+
+    public byte[] getData(String path) throws ZkClientException {
+        return getClient(path).getData(path);
+    }
+
+    public byte[] getData(String path, boolean watcher) throws ZkClientException {
+        return getClient(path).getData(path, watcher);
+    }
+
+    public byte[] getData(String path, boolean watcher, Stat stat) throws ZkClientException {
+        return getClient(path).getData(path, watcher, stat);
+    }
+
+    public void setData(String path, byte[] data) throws ZkClientException {
+        getClient(path).setData(path, data);
+    }
+
+    public List<String> getChild(String path, boolean watcher) throws ZkClientException {
+        return getClient(path).getChild(path, watcher);
+    }
+
+    public List<String> getChild(String path, boolean watcher, Stat stat) throws ZkClientException {
+        return getClient(path).getChild(path, watcher, stat);
+    }
+
+    public String create(String path, byte[] data, CreateMode mode) throws ZkClientException {
+        return getClient(path).create(path, data, mode);
+    }
+
+    public void create(String path, byte[] data, boolean reCreate) throws ZkClientException {
+        getClient(path).create(path, data, reCreate);
+    }
+
+    public void create(String path, byte[] data) throws ZkClientException {
+        getClient(path).create(path, data);
+    }
+
+    public String create(String path, CreateMode mode) throws ZkClientException {
+        return getClient(path).create(path, mode);
+    }
+
+    public String create(String path, String[] data, CreateMode mode) throws ZkClientException {
+        return getClient(path).create(path, data, mode);
+    }
+
+    public void delete(String path) throws ZkClientException {
+        getClient(path).delete(path);
+    }
+
+    public void deleteRecursive(String path) throws ZkClientException {
+        getClient(path).deleteRecursive(path);
+    }
+
+    public void copySubtree(String src, String dst) throws ZkClientException {
+        getClient(dst).copySubtree(src, dst);
+    }
+
+    public boolean exists(String path) throws ZkClientException {
+        return getClient(path).exists(path);
+    }
+
+    public void sync(String path) throws ZkClientException {
+        getClient(path).sync(path);
+    }
+
+    public CompletableFuture<byte[]> getDataAsync(String path) {
+        return getClient(path).getDataAsync(path);
+    }
+
+    public CompletableFuture<byte[]> getDataAsync(String path, boolean watcher) {
+        return getClient(path).getDataAsync(path, watcher);
+    }
+
+    public CompletableFuture<byte[]> getDataAsync(String path, boolean watcher, Stat stat) {
+        return getClient(path).getDataAsync(path, watcher, stat);
+    }
+
+    public CompletableFuture<Void> setDataAsync(String path, byte[] data) {
+        return getClient(path).setDataAsync(path, data);
+    }
+
+    public CompletableFuture<List<String>> getChildAsync(String path, boolean watcher) {
+        return getClient(path).getChildAsync(path, watcher);
+    }
+
+    public CompletableFuture<List<String>> getChildAsync(String path, boolean watcher, Stat stat) {
+        return getClient(path).getChildAsync(path, watcher, stat);
+    }
+
+    public CompletableFuture<String> createAsync(String path, byte[] data, CreateMode mode) {
+        return getClient(path).createAsync(path, data, mode);
+    }
+
+    public CompletableFuture<Void> deleteAsync(String path) {
+        return getClient(path).deleteAsync(path);
+    }
+
+    public CompletableFuture<Boolean> existsAsync(String path) {
+        return getClient(path).existsAsync(path);
+    }
+
+    public CompletableFuture<Boolean> existsAsync(String path, boolean watcher) {
+        return getClient(path).existsAsync(path, watcher);
+    }
+
+    /**
+     * 创建批量事务，事务在routePath所路由到的会话上提交
+     *
+     * @param routePath 用于路由的路径，通常为事务操作的公共父节点
+     * @return 事务对象
+     */
+    public ZkTransaction transaction(String routePath) {
+        return getClient(routePath).transaction();
+    }
+
+    public ListenerHandle listenData(String path, Listener listener) throws ZkClientException {
+        return getClient(path).listenData(path, listener);
+    }
+
+    public ListenerHandle listenData(String path, Listener listener, long coalesceWindow) throws ZkClientException {
+        return getClient(path).listenData(path, listener, coalesceWindow);
+    }
+
+    public void unlistenData(String path) throws ZkClientException {
+        getClient(path).unlistenData(path);
+    }
+
+    public ListenerHandle listenChild(String path, Listener listener) throws ZkClientException {
+        return getClient(path).listenChild(path, listener);
+    }
+
+    public ListenerHandle listenChild(String path, Listener listener, long coalesceWindow) throws ZkClientException {
+        return getClient(path).listenChild(path, listener, coalesceWindow);
+    }
+
+    public void unlintenChild(String path) throws ZkClientException {
+        getClient(path).unlintenChild(path);
+    }
+
+    public ListenerHandle listenChild(String path, BatchListener listener) throws ZkClientException {
+        return getClient(path).listenChild(path, listener);
+    }
+
+    public ListenerHandle listenChild(String path, BatchListener listener, long coalesceWindow) throws ZkClientException {
+        return getClient(path).listenChild(path, listener, coalesceWindow);
+    }
+
+    public ListenerHandle listenChildData(String path, BatchListener listener) {
+        return getClient(path).listenChildData(path, listener);
+    }
+
+    public ListenerHandle listenChildData(String path, BatchListener listener, long coalesceWindow) {
+        return getClient(path).listenChildData(path, listener, coalesceWindow);
+    }
+
+    public ListenerHandle listenChildData(String path, Listener listener) {
+        return getClient(path).listenChildData(path, listener);
+    }
+
+    public ListenerHandle listenChildData(String path, Listener listener, long coalesceWindow) {
+        return getClient(path).listenChildData(path, listener, coalesceWindow);
+    }
+
+    public void unlistenChildData(String path) {
+        getClient(path).unlistenChildData(path);
+    }
+
+    public TreeCache cache(String path) throws ZkClientException {
+        return getClient(path).cache(path);
+    }
+
+    public void uncache(String path) {
+        getClient(path).uncache(path);
+    }
+
+    /**
+     * 所有会话都注册该状态监听
+     *
+     * @param state    监听的状态
+     * @param listener 监听器
+     */
+    public void listenState(KeeperState state, StateListener listener) {
+        for (ZkClient client : clients) {
+            client.listenState(state, listener);
+        }
+    }
+
+    public void unlistenState(KeeperState state) {
+        for (ZkClient client : clients) {
+            client.unlistenState(state);
+        }
+    }
+
+    /**
+     * 所有会话都注册该恢复监听，每个会话恢复完成时分别回调
+     *
+     * @param listener 监听器
+     */
+    public void listenRecovery(RecoveryListener listener) {
+        for (ZkClient client : clients) {
+            client.listenRecovery(listener);
+        }
+    }
+
+    public void unlistenRecovery(RecoveryListener listener) {
+        for (ZkClient client : clients) {
+            client.unlistenRecovery(listener);
+        }
+    }
+
+    public Lock getLock(String lockPath) {
+        return getClient(lockPath).getLock(lockPath);
+    }
+
+    public Lock getSequenceLock(String lockPath) {
+        return getClient(lockPath).getSequenceLock(lockPath);
+    }
+
+    public ReadWriteLock getReadWriteLock(String lockPath) {
+        return getClient(lockPath).getReadWriteLock(lockPath);
+    }
+
+    public DistributedSemaphore getSemaphore(String path, int maxLeases) {
+        return getClient(path).getSemaphore(path, maxLeases);
+    }
+
+    /**
+     * 关闭所有会话
+     *
+     * @throws ZkClientException
+     */
+    public void close() throws ZkClientException {
+        ZkClientException error = null;
+        for (ZkClient client : clients) {
+            try {
+                client.close();
+            } catch (ZkClientException e) {
+                error = e;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * 截取参与路由的路径前缀
+     */
+    private String prefix(String path) {
+        int depth = 0;
+        for (int i = 1; i < path.length(); i++) {
+            if (path.charAt(i) == '/' && ++depth == prefixDepth) {
+                return path.substring(0, i);
+            }
+        }
+        return path;
+    }
+
+    /**
+     * FNV-1a 64位hash，再经过murmur3的finalizer打散
+     */
+    private static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,203 @@
+package com.danyy.zk;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 子树操作：递归删除、复制
+ * 按层广度优先遍历，每一层的请求异步并发发送，在途请求数受InFlightLimiter限制
+ */
+class SubtreeOperation {
+
+    //默认最大在途请求数
+    static final int DEFAULT_MAX_IN_FLIGHT = 200;
+    //每个multi请求包含的删除操作数，受服务端jute.maxbuffer（默认1M）限制
+    static final int DEFAULT_BATCH_SIZE = 500;
+
+    private final ZkClient client;
+    private final InFlightLimiter limiter;
+    private final int batchSize;
+
+    SubtreeOperation(ZkClient client, int maxInFlight, int batchSize) {
+        this.client = client;
+        this.limiter = new InFlightLimiter(maxInFlight);
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * 删除节点及其所有子孙节点
+     * 先逐层读取整棵子树，再从最深一层开始，每层的节点按batchSize分批通过multi删除；
+     * 批量删除失败（遍历后子树被并发修改）时，该批节点逐个删除，
+     * 已不存在的节点忽略，新出现子节点的节点重新递归删除
+     *
+     * @param path 节点路径
+     */
+    void deleteRecursive(String path) throws ZkClientException {
+        if ("/".equals(path)) {
+            throw new ZkClientException("Can not delete root node.");
+        }
+        List<List<String>> levels = new ArrayList<List<String>>();
+        levels.add(Collections.singletonList(path));
+        // 根节点不存在时报错，与delete保持一致
+        List<String> level = absolute(path, client.getChild(path, false));
+        while (!level.isEmpty()) {
+            levels.add(level);
+            level = this.children(level);
+        }
+        for (int i = levels.size() - 1; i >= 0; i--) {
+            this.deleteLevel(levels.get(i));
+        }
+    }
+
+    /**
+     * 将src子树复制到dst，复制出的节点均为永久节点
+     * dst的父节点必须存在，dst不能已存在
+     *
+     * @param src 源节点路径
+     * @param dst 目标节点路径
+     */
+    void copySubtree(String src, final String dst) throws ZkClientException {
+        if (dst.equals(src) || dst.startsWith(src.equals("/") ? "/" : src + "/")) {
+            throw new ZkClientException("Can not copy node " + src + " into itself, dst=" + dst);
+        }
+        client.create(dst, client.getData(src, false), CreateMode.PERSISTENT);
+        final int prefix = src.equals("/") ? 0 : src.length();
+        List<String> level = Collections.singletonList(src);
+        while (!level.isEmpty()) {
+            level = this.children(level);
+            List<CompletableFuture<String>> futures = new ArrayList<CompletableFuture<String>>(level.size());
+            for (final String node : level) {
+                futures.add(limiter.submit(new Supplier<CompletableFuture<String>>() {
+                    @Override
+                    public CompletableFuture<String> get() {
+                        return client.getDataAsync(node).thenCompose(new Function<byte[], CompletableFuture<String>>() {
+                            @Override
+                            public CompletableFuture<String> apply(byte[] data) {
+                                return client.createAsync(dst + node.substring(prefix), data, CreateMode.PERSISTENT);
+                            }
+                        });
+                    }
+                }));
+            }
+            // 复制过程中源节点被删除时跳过
+            this.awaitAll(futures, KeeperException.Code.NONODE);
+        }
+    }
+
+    /**
+     * 并发获取一层节点的所有子节点，已不存在的节点忽略
+     *
+     * @param parents 父节点路径
+     * @return 子节点绝对路径
+     */
+    private List<String> children(List<String> parents) throws ZkClientException {
+        final List<String> next = Collections.synchronizedList(new ArrayList<String>());
+        List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>(parents.size());
+        for (final String parent : parents) {
+            futures.add(limiter.submit(new Supplier<CompletableFuture<List<String>>>() {
+                @Override
+                public CompletableFuture<List<String>> get() {
+                    return client.getChildAsync(parent);
+                }
+            }).thenAccept(new Consumer<List<String>>() {
+                @Override
+                public void accept(List<String> children) {
+                    next.addAll(absolute(parent, children));
+                }
+            }));
+        }
+        this.awaitAll(futures, KeeperException.Code.NONODE);
+        return next;
+    }
+
+    /**
+     * 分批删除同一层的节点
+     *
+     * @param nodes 节点路径
+     */
+    private void deleteLevel(List<String> nodes) throws ZkClientException {
+        for (int from = 0; from < nodes.size(); from += batchSize) {
+            List<String> batch = nodes.subList(from, Math.min(from + batchSize, nodes.size()));
+            List<Op> ops = new ArrayList<Op>(batch.size());
+            for (String node : batch) {
+                ops.add(Op.delete(node, -1));
+            }
+            try {
+                client.multi(ops);
+            } catch (ZkTransactionException e) {
+                this.deleteEach(batch);
+            }
+        }
+    }
+
+    /**
+     * 逐个并发删除节点
+     *
+     * @param nodes 节点路径
+     */
+    private void deleteEach(List<String> nodes) throws ZkClientException {
+        List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>(nodes.size());
+        for (final String node : nodes) {
+            futures.add(limiter.submit(new Supplier<CompletableFuture<Void>>() {
+                @Override
+                public CompletableFuture<Void> get() {
+                    return client.deleteAsync(node);
+                }
+            }));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                ZkClient.await(futures.get(i));
+            } catch (ZkClientException e) {
+                if (e.getCode() == KeeperException.Code.NOTEMPTY) {
+                    this.deleteRecursive(nodes.get(i));
+                } else if (e.getCode() != KeeperException.Code.NONODE) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * 等待所有异步结果
+     *
+     * @param futures 异步结果
+     * @param ignore  忽略的错误码
+     */
+    private <T> void awaitAll(List<CompletableFuture<T>> futures, KeeperException.Code ignore) throws ZkClientException {
+        ZkClientException error = null;
+        for (CompletableFuture<T> future : futures) {
+            try {
+                ZkClient.await(future);
+            } catch (ZkClientException e) {
+                if (e.getCode() != ignore && error == null) {
+                    error = e;
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * 子节点名称转为绝对路径
+     */
+    private static List<String> absolute(String parent, List<String> children) {
+        List<String> paths = new ArrayList<String>(children.size());
+        String prefix = parent.equals("/") ? "/" : parent + "/";
+        for (String child : children) {
+            paths.add(prefix + child);
+        }
+        return paths;
+    }
+}
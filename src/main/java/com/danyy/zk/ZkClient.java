@@ -1,25 +1,51 @@
 package com.danyy.zk;
 
+import com.danyy.zk.cache.CachedNode;
+import com.danyy.zk.cache.TreeCache;
+import com.danyy.zk.listener.BatchListener;
 import com.danyy.zk.listener.Listener;
+import com.danyy.zk.listener.ListenerHandle;
+import com.danyy.zk.listener.ListenerProcessPool;
+import com.danyy.zk.listener.RecoveryListener;
 import com.danyy.zk.listener.StateListener;
+import com.danyy.zk.lock.DistributedSemaphore;
 import com.danyy.zk.lock.HALock;
 import com.danyy.zk.lock.Lock;
-import com.danyy.zk.lock.SimpleLock;
+import com.danyy.zk.lock.LockRegistry;
+import com.danyy.zk.lock.ReadWriteLock;
+import com.danyy.zk.metrics.ZkMetrics;
 import com.danyy.zk.watcher.WatcherProcess;
 import com.danyy.zk.watcher.ZkWatcher;
+import org.apache.zookeeper.AsyncCallback;
 import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.Watcher.Event.KeeperState;
 import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.apache.zookeeper.ZooDefs;
 import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.proto.CreateRequest;
+import org.apache.zookeeper.proto.SetDataRequest;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
  * zookeeper 客户端
@@ -48,6 +74,27 @@ public class ZkClient {
     private ZooKeeper zk;
     private ZkWatcher watcher;
     private WatcherProcess process;
+    //执行异步multi的线程，所有客户端共享
+    private static final ExecutorService MULTI_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "zkClient-multi");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    //读请求合并
+    private final ReadCoalescer coalescer = new ReadCoalescer();
+    //首次连接成功时完成
+    private final CompletableFuture<ZkClient> connected = new CompletableFuture<ZkClient>();
+    //首次连接成功之前发起的操作的处理策略
+    private ConnectPolicy connectPolicy = ConnectPolicy.WAIT;
+    //操作重试及指标
+    private OperationExecutor executor = new OperationExecutor(this, RetryPolicy.none(), new ZkMetrics(), null);
+    //连接状态变化时通知挂起等待连接的操作
+    private final Object connMonitor = new Object();
+    //按路径缓存的锁
+    private final LockRegistry locks = new LockRegistry(this);
 
     /**
      * 创建zookeeper客户端
@@ -83,34 +130,122 @@ public class ZkClient {
         // 实例化观察对象zkWatcher，并传入锁（作为连接同步锁）
         watcher = new ZkWatcher(connLock, this);
         this.process = new WatcherProcess(this, watcherThreadSize);
+        this.executor.getMetrics().setDispatchStats(this.process.getListenerPool().getStats());
         this.connection();
     }
 
+    /**
+     * 通过构建器创建客户端
+     *
+     * @param builder 构建器
+     * @throws ZkClientException 同步连接失败
+     */
+    ZkClient(ZkClientBuilder builder) throws ZkClientException {
+        this.hosts = builder.getHosts();
+        this.sessionTimeout = builder.getSessionTimeout();
+        this.connTimeout = builder.getConnTimeout();
+        this.connectPolicy = builder.getConnectPolicy();
+        this.executor = new OperationExecutor(this, builder.getRetryPolicy(), new ZkMetrics(), builder.getMetricsCollector());
+        watcher = new ZkWatcher(connLock, this);
+        this.process = new WatcherProcess(this, new ListenerProcessPool(builder.getWatcherThreadSize(), builder.getDispatchMode(),
+                builder.getListenerQueueCapacity(), builder.getOverflowPolicy()));
+        this.process.setRecovery(builder.getRecoveryMaxInFlight(), builder.getRecoveryRate());
+        this.locks.setIdleTimeout(builder.getLockIdleTimeout());
+        this.locks.setMaxLocks(builder.getMaxLocks());
+        this.locks.setCohortHandoffs(builder.getLockCohortHandoffs());
+        this.executor.getMetrics().setDispatchStats(this.process.getListenerPool().getStats());
+        if (builder.getJmxName() != null) {
+            this.executor.getMetrics().registerJmx(builder.getJmxName());
+        }
+        if (builder.isAsyncConnect()) {
+            this.connectionAsync();
+        } else {
+            this.connection();
+        }
+    }
+
+    /**
+     * 创建客户端构建器
+     *
+     * @param hosts zookeeper服务地址 10.0.1.121:2181,10.0.1.131:2181
+     * @return 构建器
+     */
+    public static ZkClientBuilder builder(String hosts) {
+        return new ZkClientBuilder(hosts);
+    }
+
     /**
      * 获取节点下的数据
+     * 路径在本地缓存（见cache(path)）范围内时直接返回缓存数据
      *
      * @param path 节点路径
      * @return
      */
     public byte[] getData(String path) throws ZkClientException {
+        TreeCache cache = this.process.getCache(path);
+        if (cache != null) {
+            CachedNode node = cache.getNode(path);
+            if (node == null) {
+                throw new ZkClientException("getData node " + path, new KeeperException.NoNodeException(path));
+            }
+            byte[] data = node.getData();
+            return data == null ? null : data.clone();
+        }
         return getData(path, false);
     }
 
     /**
      * 获取节点下的数据
+     * 相同的读请求已在途时不再重复发送，共享在途请求的结果
      *
      * @param path    节点路径
      * @param watcher 是否对该节点进行数据变动监听（只能收到一次变动消息）
      * @return
      * @throws ZkClientException
      */
-    public byte[] getData(String path, boolean watcher) throws ZkClientException {
-        this.checkStatus();
-        try {
-            return this.zk.getData(path, watcher, null);
-        } catch (Exception e) {
-            throw new ZkClientException("getData node " + path, e);
-        }
+    public byte[] getData(final String path, final boolean watcher) throws ZkClientException {
+        return this.coalescer.execute(ReadCoalescer.GET_DATA, path, watcher, executor.wrap("getData", path, "getData node " + path, new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                return zk.getData(path, watcher, null);
+            }
+        }, true), ReadCoalescer.COPY_DATA);
+    }
+
+    /**
+     * 判断节点是否存在，并在节点上注册指定的watcher，节点创建、删除或数据变化时回调一次
+     * 不与其它读请求合并
+     *
+     * @param path    节点路径
+     * @param watcher 自定义watcher，不经过默认的事件处理
+     * @return 是否存在
+     * @throws ZkClientException
+     */
+    public boolean exists(final String path, final Watcher watcher) throws ZkClientException {
+        return this.executor.call("exists", path, 0, "exists node " + path, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return zk.exists(path, watcher) != null;
+            }
+        }, true);
+    }
+
+    /**
+     * 获取节点下的数据及节点状态
+     * 需要返回Stat，不与其它读请求合并
+     *
+     * @param path    节点路径
+     * @param watcher 是否对该节点进行数据变动监听（只能收到一次变动消息）
+     * @param stat    输出：节点状态（czxid、mzxid等）
+     * @throws ZkClientException
+     */
+    public byte[] getData(final String path, final boolean watcher, final Stat stat) throws ZkClientException {
+        return this.executor.call("getData", path, 0, "getData node " + path, new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                return zk.getData(path, watcher, stat);
+            }
+        }, true);
     }
 
     /**
@@ -120,22 +255,33 @@ public class ZkClient {
      * @param data
      * @throws ZkClientException
      */
-    public void setData(String path, byte[] data) throws ZkClientException {
-        this.checkStatus();
-        try {
-            this.zk.setData(path, data, -1);
-        } catch (Exception e) {
-            throw new ZkClientException("setData node " + path, e);
-        }
+    public void setData(final String path, final byte[] data) throws ZkClientException {
+        this.coalescer.invalidate(path);
+        this.executor.call("setData", path, data == null ? 0 : data.length, "setData node " + path, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                zk.setData(path, data, -1);
+                return null;
+            }
+        }, true);
     }
 
     /**
      * 获取child节点信息
+     * 路径在本地缓存范围内时直接返回缓存数据
      *
      * @param path
      * @throws ZkClientException
      */
     protected List<String> getChild(String path) throws ZkClientException {
+        TreeCache cache = this.process.getCache(path);
+        if (cache != null) {
+            List<String> children = cache.getChildren(path);
+            if (children == null) {
+                throw new ZkClientException("getChildren node " + path, new KeeperException.NoNodeException(path));
+            }
+            return children;
+        }
         return this.getChild(path, false);
     }
 
@@ -145,13 +291,31 @@ public class ZkClient {
      * @param path
      * @throws ZkClientException
      */
-    public List<String> getChild(String path, boolean watcher) throws ZkClientException {
-        this.checkStatus();
-        try {
-            return this.zk.getChildren(path, watcher);
-        } catch (Exception e) {
-            throw new ZkClientException("getChildren node " + path, e);
-        }
+    public List<String> getChild(final String path, final boolean watcher) throws ZkClientException {
+        return this.coalescer.execute(ReadCoalescer.GET_CHILDREN, path, watcher, executor.wrap("getChildren", path, "getChildren node " + path, new Callable<List<String>>() {
+            @Override
+            public List<String> call() throws Exception {
+                return zk.getChildren(path, watcher);
+            }
+        }, true), ReadCoalescer.COPY_CHILDREN);
+    }
+
+    /**
+     * 获取child节点信息及节点状态
+     * 需要返回Stat，不与其它读请求合并
+     *
+     * @param path    节点路径
+     * @param watcher 是否监听子节点变化
+     * @param stat    输出：节点状态（cversion、pzxid、numChildren等）
+     * @throws ZkClientException
+     */
+    public List<String> getChild(final String path, final boolean watcher, final Stat stat) throws ZkClientException {
+        return this.executor.call("getChildren", path, 0, "getChildren node " + path, new Callable<List<String>>() {
+            @Override
+            public List<String> call() throws Exception {
+                return zk.getChildren(path, watcher, stat);
+            }
+        }, true);
     }
 
     /**
@@ -162,16 +326,28 @@ public class ZkClient {
      * @param data 节点数据
      * @param mode 节点类型 CreateMode.PERSISTENT 永久节点，CreateMode.EPHEMERAL临时节点
      */
-    public String create(String path, byte[] data, CreateMode mode) throws ZkClientException {
-        this.checkStatus();
-        String createNode;
-        try {
-            //test.createNode(childrenPath, String.valueOf(System.currentTimeMillis()), Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
-            createNode = this.zk.create(path, data,Ids.OPEN_ACL_UNSAFE, mode);
-        } catch (Exception e) {
-            throw new ZkClientException("create node " + path + ", mode=" + mode.name(), e);
-        }
-        return createNode;
+    public String create(final String path, final byte[] data, final CreateMode mode) throws ZkClientException {
+        this.coalescer.invalidate(path);
+        // 顺序节点重试可能重复创建，不重试；临时节点属于会话，会话超时后不重试
+        return this.executor.call("create", path, data == null ? 0 : data.length, "create node " + path + ", mode=" + mode.name(), new Callable<String>() {
+            private int attempts = 0;
+
+            @Override
+            public String call() throws Exception {
+                try {
+                    //test.createNode(childrenPath, String.valueOf(System.currentTimeMillis()), Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+                    return zk.create(path, data,Ids.OPEN_ACL_UNSAFE, mode);
+                } catch (KeeperException.NodeExistsException e) {
+                    // 重试时节点已存在，说明连接断开的那次创建已经成功
+                    if (attempts == 0) {
+                        throw e;
+                    }
+                    return path;
+                } finally {
+                    attempts++;
+                }
+            }
+        }, !mode.isSequential(), mode.isEphemeral());
     }
 
     /**
@@ -203,31 +379,16 @@ public class ZkClient {
 
     /**
      * 支持多层节点创建
+     * 先直接创建叶子节点，父节点不存在时再一次性流水线创建所有父节点和叶子节点，最多2次往返
      *
      * @param path
-     * @param mode
+     * @param mode 叶子节点类型，父节点为永久节点
+     * @return 实际创建的节点路径（顺序节点带有序号）
      * @throws ZkClientException
      */
     public String create(String path, CreateMode mode) throws ZkClientException {
         if (path != null && !path.trim().equals("")) {
-            if (exists(path)) {
-                throw new ZkClientException("Node path: " + path + " already exists.");
-            }
-            String[] paths = path.trim().split("/");
-            String p = "";
-            for (int i = 0; i < paths.length; i++) {
-                String s = paths[i];
-                if (s != null && !s.equals("")) {
-                    p += "/" + s;
-                    if (!exists(p)) {
-                        if (i < paths.length - 1) {
-                            this.create(p, new byte[1], CreateMode.PERSISTENT);
-                        } else {
-                            this.create(p, new byte[1], mode);
-                        }
-                    }
-                }
-            }
+            return this.createPath(path, null, CreateMode.PERSISTENT, mode);
         }
         return path;
     }
@@ -240,33 +401,78 @@ public class ZkClient {
      * @param data  字符串数据数组，分别为每一层的数据，当路径层数，与数据项数不一致时，报错
      *              当存在目录层次的时候，不覆盖原来的数据
      * @param mode  数据类型：永久节点/临时节点
-     * @return
+     * @return 实际创建的节点路径（顺序节点带有序号）
      */
     public String create(String path,String[] data,CreateMode mode){
         if (path != null && !path.trim().equals("")) {
-            if (exists(path)) {
-                throw new ZkClientException("Node path: " + path + " already exists.");
-            }
             String[] paths = path.trim().split("/");
             paths = Arrays.copyOfRange(paths,1,paths.length);
             if(paths.length!=data.length){
                 throw new ZkClientException("Data and path layers do not match");
             }
-            String p = "";
-            String insertData = "";
-            for (int i = 0; i < paths.length; i++) {
-                String s = paths[i];
-                insertData = data[i];
-                if (s != null && !s.equals("")) {
-                    p += "/" + s;
-                    // 不存在进入
-                    if (!exists(p)) {
-                        this.create(p, insertData.getBytes(), mode);
-                    }
+            return this.createPath(path, data, mode, mode);
+        }
+        return path;
+    }
+
+    /**
+     * 多层节点创建
+     * 1. 直接创建叶子节点，父节点都存在时只需1次往返
+     * 2. 返回NoNode时，按从上到下的顺序异步发送所有层级的create请求，
+     *    同一会话的请求由服务端按顺序处理，父节点总是先于子节点创建，
+     *    中间层级返回NodeExists视为成功
+     *
+     * @param path       路径
+     * @param data       每一层的数据，为null时每层数据为new byte[1]
+     * @param parentMode 中间层级的节点类型
+     * @param mode       叶子节点类型
+     * @return 实际创建的叶子节点路径
+     */
+    private String createPath(String path, String[] data, CreateMode parentMode, CreateMode mode) throws ZkClientException {
+        List<String> levels = new ArrayList<String>();
+        List<byte[]> levelData = new ArrayList<byte[]>();
+        String[] paths = path.trim().split("/");
+        String p = "";
+        for (int i = 0; i < paths.length; i++) {
+            String s = paths[i];
+            if (s != null && !s.equals("")) {
+                p += "/" + s;
+                levels.add(p);
+                levelData.add(data == null ? new byte[1] : data[i - 1].getBytes());
+            }
+        }
+        if (levels.isEmpty()) {
+            return path;
+        }
+        int last = levels.size() - 1;
+        try {
+            return this.create(levels.get(last), levelData.get(last), mode);
+        } catch (ZkClientException e) {
+            if (e.getCode() == KeeperException.Code.NODEEXISTS) {
+                throw new ZkClientException("Node path: " + path + " already exists.");
+            }
+            if (e.getCode() != KeeperException.Code.NONODE) {
+                throw e;
+            }
+        }
+        List<CompletableFuture<String>> futures = new ArrayList<CompletableFuture<String>>(levels.size());
+        for (int i = 0; i <= last; i++) {
+            futures.add(this.createAsync(levels.get(i), levelData.get(i), i < last ? parentMode : mode));
+        }
+        String createNode = null;
+        for (int i = 0; i <= last; i++) {
+            try {
+                createNode = await(futures.get(i));
+            } catch (ZkClientException e) {
+                if (e.getCode() != KeeperException.Code.NODEEXISTS) {
+                    throw e;
+                }
+                if (i == last) {
+                    throw new ZkClientException("Node path: " + path + " already exists.");
                 }
             }
         }
-        return path;
+        return createNode;
     }
 
     /**
@@ -275,13 +481,138 @@ public class ZkClient {
      * @param path 路径
      * @throws ZkClientException
      */
-    public void delete(String path) throws ZkClientException {
-        this.checkStatus();
+    public void delete(final String path) throws ZkClientException {
+        this.coalescer.invalidate(path);
+        this.executor.call("delete", path, 0, "delete node " + path, new Callable<Void>() {
+            private int attempts = 0;
+
+            @Override
+            public Void call() throws Exception {
+                try {
+                    zk.delete(path, -1);
+                } catch (KeeperException.NoNodeException e) {
+                    // 重试时节点已不存在，说明连接断开的那次删除已经成功
+                    if (attempts == 0) {
+                        throw e;
+                    }
+                } finally {
+                    attempts++;
+                }
+                return null;
+            }
+        }, true);
+    }
+
+    /**
+     * 删除节点及其所有子孙节点
+     * 广度优先并发读取子树，再从最深一层开始通过multi批量删除
+     *
+     * @param path 路径
+     * @throws ZkClientException
+     */
+    public void deleteRecursive(String path) throws ZkClientException {
+        new SubtreeOperation(this, SubtreeOperation.DEFAULT_MAX_IN_FLIGHT, SubtreeOperation.DEFAULT_BATCH_SIZE).deleteRecursive(path);
+    }
+
+    /**
+     * 复制子树，复制出的节点均为永久节点
+     *
+     * @param src 源节点路径
+     * @param dst 目标节点路径，父节点必须存在，自身不能已存在
+     * @throws ZkClientException
+     */
+    public void copySubtree(String src, String dst) throws ZkClientException {
+        new SubtreeOperation(this, SubtreeOperation.DEFAULT_MAX_IN_FLIGHT, SubtreeOperation.DEFAULT_BATCH_SIZE).copySubtree(src, dst);
+    }
+
+    /**
+     * 创建批量事务，收集的操作通过一次multi请求原子提交
+     *
+     * @return 事务对象
+     */
+    public ZkTransaction transaction() {
+        return new ZkTransaction(this);
+    }
+
+    /**
+     * 原子执行一组操作
+     *
+     * @param ops 操作列表
+     * @return 每个操作的结果
+     * @throws ZkTransactionException 事务失败，有操作结果时所有操作均未生效，没有结果时事务可能已经提交
+     */
+    public List<OpResult> multi(final List<Op> ops) throws ZkClientException {
+        if (ops.isEmpty()) {
+            return new ArrayList<OpResult>();
+        }
+        // 事务提交后响应丢失时重发会因自己的create/delete/check或带版本的setData失败，
+        // 只有全部是不带版本的setData时重试结果不变
+        boolean retryable = true;
+        int bytes = 0;
+        for (Op op : ops) {
+            this.coalescer.invalidate(op.getPath());
+            bytes += requestBytes(op);
+            if (op.getType() != ZooDefs.OpCode.setData || ((SetDataRequest) op.toRequestRecord()).getVersion() != -1) {
+                retryable = false;
+            }
+        }
         try {
-            this.zk.delete(path, -1);
-        } catch (Exception e) {
-            throw new ZkClientException("delete node " + path, e);
+            return this.executor.call("multi", ops.get(0).getPath(), bytes, "multi " + ops.size() + " ops", new Callable<List<OpResult>>() {
+                @Override
+                public List<OpResult> call() throws Exception {
+                    return zk.multi(ops);
+                }
+            }, retryable);
+        } catch (ZkClientException e) {
+            if (!(e.getCause() instanceof KeeperException)) {
+                throw new ZkTransactionException(e.getMessage(), (Exception) e.getCause(), null, -1);
+            }
+            List<OpResult> results = ((KeeperException) e.getCause()).getResults();
+            int index = -1;
+            if (results != null) {
+                for (int i = 0; i < results.size(); i++) {
+                    OpResult result = results.get(i);
+                    if (result instanceof OpResult.ErrorResult) {
+                        int err = ((OpResult.ErrorResult) result).getErr();
+                        if (err != KeeperException.Code.OK.intValue() && err != KeeperException.Code.RUNTIMEINCONSISTENCY.intValue()) {
+                            index = i;
+                            break;
+                        }
+                    }
+                }
+            }
+            String failed = index < 0 ? "" : ", failed op " + index + " node " + ops.get(index).getPath();
+            throw new ZkTransactionException("multi " + ops.size() + " ops" + failed, (KeeperException) e.getCause(), results, index);
+        }
+    }
+
+    /**
+     * 异步原子执行一组操作
+     * 当前依赖的zookeeper版本没有异步multi接口，在独立的线程中执行同步multi，不阻塞调用线程（如zookeeper事件线程）
+     *
+     * @param ops 操作列表
+     * @return 每个操作的结果，事务失败时以ZkTransactionException结束
+     */
+    public CompletableFuture<List<OpResult>> multiAsync(final List<Op> ops) {
+        return CompletableFuture.supplyAsync(new Supplier<List<OpResult>>() {
+            @Override
+            public List<OpResult> get() {
+                return multi(ops);
+            }
+        }, MULTI_EXECUTOR);
+    }
+
+    /**
+     * @return 事务中单个操作写入的数据大小
+     */
+    private static int requestBytes(Op op) {
+        byte[] data = null;
+        if (op.getType() == ZooDefs.OpCode.create) {
+            data = ((CreateRequest) op.toRequestRecord()).getData();
+        } else if (op.getType() == ZooDefs.OpCode.setData) {
+            data = ((SetDataRequest) op.toRequestRecord()).getData();
         }
+        return data == null ? 0 : data.length;
     }
 
     /**
@@ -289,13 +620,26 @@ public class ZkClient {
      *
      * @param listener
      * @param path
+     * @return 注册句柄，用于单独取消该监听器
      */
-    public void listenData(String path, Listener listener) throws ZkClientException {
-        this.listen(path, listener, false, false);
+    public ListenerHandle listenData(String path, Listener listener) throws ZkClientException {
+        return this.listen(path, listener, false, false);
     }
 
     /**
-     * 取消对节点的数据变化监听
+     * 监听节点的数据变化，合并窗口内的多次变化只读取一次数据、回调一次最新数据
+     *
+     * @param path           节点路径
+     * @param listener       监听器
+     * @param coalesceWindow 合并窗口（毫秒）
+     * @return 注册句柄，用于单独取消该监听器
+     */
+    public ListenerHandle listenData(String path, Listener listener, long coalesceWindow) throws ZkClientException {
+        return this.listen(path, listener, false, false, coalesceWindow);
+    }
+
+    /**
+     * 取消对节点的数据变化监听，移除该节点上的所有监听器
      *
      * @param path
      * @throws ZkClientException
@@ -309,14 +653,50 @@ public class ZkClient {
      *
      * @param path
      * @param listener
+     * @return 注册句柄，用于单独取消该监听器
      * @throws ZkClientException
      */
-    public void listenChild(String path, Listener listener) throws ZkClientException {
-        this.listen(path, listener, true, false);
+    public ListenerHandle listenChild(String path, Listener listener) throws ZkClientException {
+        return this.listen(path, listener, true, false);
     }
 
     /**
-     * 取消对节点的子节点变化监听
+     * 监听节点的子节点变化，合并窗口内的多次变化只读取一次子节点，回调净增加和净删除的子节点
+     *
+     * @param path           节点路径
+     * @param listener       监听器
+     * @param coalesceWindow 合并窗口（毫秒）
+     * @return 注册句柄，用于单独取消该监听器
+     */
+    public ListenerHandle listenChild(String path, Listener listener, long coalesceWindow) throws ZkClientException {
+        return this.listen(path, listener, true, false, coalesceWindow);
+    }
+
+    /**
+     * 批量监听节点的子节点变化，一次刷新的所有增删合并为一次回调
+     *
+     * @param path     节点路径
+     * @param listener 批量监听器
+     * @return 注册句柄，用于单独取消该监听器
+     */
+    public ListenerHandle listenChild(String path, BatchListener listener) throws ZkClientException {
+        return this.listenChild(path, listener, 0);
+    }
+
+    /**
+     * 批量监听节点的子节点变化，合并窗口内的所有增删合并为一次回调
+     *
+     * @param path           节点路径
+     * @param listener       批量监听器
+     * @param coalesceWindow 合并窗口（毫秒）
+     * @return 注册句柄，用于单独取消该监听器
+     */
+    public ListenerHandle listenChild(String path, BatchListener listener, long coalesceWindow) throws ZkClientException {
+        return this.listen(path, listener, false, coalesceWindow);
+    }
+
+    /**
+     * 取消对节点的子节点变化监听，移除该节点上的所有监听器
      *
      * @param path
      * @throws ZkClientException
@@ -330,9 +710,45 @@ public class ZkClient {
      *
      * @param path     父节点地址
      * @param listener 监听器
+     * @return 注册句柄，用于单独取消该监听器
      */
-    public void listenChildData(String path, Listener listener) {
-        this.listen(path, listener, false, true);
+    public ListenerHandle listenChildData(String path, Listener listener) {
+        return this.listen(path, listener, false, true);
+    }
+
+    /**
+     * 监听孩子节点数据变化，子节点增删和子节点数据变化都按合并窗口合并
+     *
+     * @param path           父节点地址
+     * @param listener       监听器
+     * @param coalesceWindow 合并窗口（毫秒）
+     * @return 注册句柄，用于单独取消该监听器
+     */
+    public ListenerHandle listenChildData(String path, Listener listener, long coalesceWindow) {
+        return this.listen(path, listener, false, true, coalesceWindow);
+    }
+
+    /**
+     * 批量监听孩子节点的增删及数据变化
+     *
+     * @param path     父节点地址
+     * @param listener 批量监听器
+     * @return 注册句柄，用于单独取消该监听器
+     */
+    public ListenerHandle listenChildData(String path, BatchListener listener) {
+        return this.listenChildData(path, listener, 0);
+    }
+
+    /**
+     * 批量监听孩子节点的增删及数据变化，子节点增删和数据变化都按合并窗口合并
+     *
+     * @param path           父节点地址
+     * @param listener       批量监听器
+     * @param coalesceWindow 合并窗口（毫秒）
+     * @return 注册句柄，用于单独取消该监听器
+     */
+    public ListenerHandle listenChildData(String path, BatchListener listener, long coalesceWindow) {
+        return this.listen(path, listener, true, coalesceWindow);
     }
 
     /**
@@ -352,17 +768,56 @@ public class ZkClient {
      * @param listener  监听器
      * @param child     true为监听子节点变化，false 为监听节点数据变化
      * @param childData true为监听孩子节点数据变化
+     * @return 注册句柄
      * @throws ZkClientException
      */
-    private void listen(String path, Listener listener, boolean child, boolean childData) throws ZkClientException {
+    private ListenerHandle listen(String path, Listener listener, boolean child, boolean childData) throws ZkClientException {
+        return this.listen(path, listener, child, childData, 0);
+    }
+
+    /**
+     * 监听zookeeper信息变化
+     *
+     * @param path           节点地址
+     * @param listener       监听器
+     * @param child          true为监听子节点变化，false 为监听节点数据变化
+     * @param childData      true为监听孩子节点数据变化
+     * @param coalesceWindow 事件合并窗口（毫秒），0表示不合并
+     * @return 注册句柄
+     * @throws ZkClientException
+     */
+    private ListenerHandle listen(String path, Listener listener, boolean child, boolean childData, long coalesceWindow) throws ZkClientException {
         this.checkStatus();
         if (!this.exists(path)) {
             throw new NullPointerException("listen path " + path + "  not found.");
         }
         if (this.process != null) {
-            this.process.listen(path, listener, child, childData);
+            return this.process.listen(path, listener, child, childData, coalesceWindow);
         } else {
             LOGGER.warn("not found WatcherProcess instance,Listening can't be triggered.");
+            return null;
+        }
+    }
+
+    /**
+     * 批量监听子节点变化
+     *
+     * @param path           父节点地址
+     * @param listener       批量监听器
+     * @param childData      是否同时监听子节点数据变化
+     * @param coalesceWindow 事件合并窗口（毫秒），0表示不合并
+     * @return 注册句柄
+     */
+    private ListenerHandle listen(String path, BatchListener listener, boolean childData, long coalesceWindow) throws ZkClientException {
+        this.checkStatus();
+        if (!this.exists(path)) {
+            throw new NullPointerException("listen path " + path + "  not found.");
+        }
+        if (this.process != null) {
+            return this.process.listen(path, listener, childData, coalesceWindow);
+        } else {
+            LOGGER.warn("not found WatcherProcess instance,Listening can't be triggered.");
+            return null;
         }
     }
 
@@ -383,6 +838,61 @@ public class ZkClient {
         }
     }
 
+    /**
+     * 在本地缓存该节点及其所有子孙节点，缓存范围内的 getData(path)/getChild(path)/exists(path)
+     * 不再访问服务端，缓存通过watch事件异步更新，是最终一致的
+     * 阻塞直到子树加载完成
+     *
+     * @param path 缓存的根节点
+     * @return 缓存对象
+     * @throws ZkClientException
+     */
+    public TreeCache cache(String path) throws ZkClientException {
+        this.checkStatus();
+        TreeCache cache = new TreeCache(this, path);
+        this.process.addCache(cache);
+        try {
+            cache.start(Math.max(connTimeout, sessionTimeout));
+        } catch (ZkClientException e) {
+            this.uncache(path);
+            throw e;
+        }
+        return cache;
+    }
+
+    /**
+     * 取消节点的本地缓存
+     *
+     * @param path 缓存的根节点
+     */
+    public void uncache(String path) {
+        TreeCache cache = this.process.removeCache(path);
+        if (cache != null) {
+            cache.close();
+        }
+    }
+
+    /**
+     * 等待当前连接的服务端与leader同步
+     * 需要线性一致读时先调用该方法，再使用带watcher参数的读接口（如getData(path, false)）直接读取服务端，
+     * 带watcher参数的读接口不使用本地缓存
+     *
+     * @param path 节点路径
+     * @throws ZkClientException
+     */
+    public void sync(String path) throws ZkClientException {
+        final ZkFuture<Void> future = new ZkFuture<Void>("sync node " + path, path);
+        if (this.checkStatus(future)) {
+            this.zk.sync(path, new AsyncCallback.VoidCallback() {
+                @Override
+                public void processResult(int rc, String path, Object ctx) {
+                    future.done(rc, null);
+                }
+            }, null);
+        }
+        await(future);
+    }
+
     /**
      * 目前只支持2种zookeeper状态
      * 1. KeeperState.Expired session 超时
@@ -443,6 +953,33 @@ public class ZkClient {
         }
     }
 
+    /**
+     * 在后台连接zookeeper，不等待连接成功
+     * 连接结果通过connected()获取
+     *
+     * @throws ZkClientException
+     */
+    private synchronized void connectionAsync() throws ZkClientException {
+        try {
+            connLock.drainPermits();
+            zk = new ZooKeeper(hosts, sessionTimeout, watcher);
+            watcher.setWatcherProcess(process);
+        } catch (IOException e) {
+            connected.completeExceptionally(e);
+            throw new ZkClientException("Connect zookeeper fail, hosts=" + hosts, e);
+        }
+    }
+
+    /**
+     * 首次连接成功时完成，客户端在连接成功前被关闭时以异常结束
+     * 回调在zookeeper事件线程中执行，不要在回调中调用同步接口
+     *
+     * @return 首次连接结果
+     */
+    public CompletableFuture<ZkClient> connected() {
+        return connected;
+    }
+
     /**
      * 重连zookeeper
      *
@@ -450,18 +987,39 @@ public class ZkClient {
      */
     public void reconnection() throws ZkClientException {
         this.connection();
-        // 当session超时重连后，重新注册监听事件
+        // 当session超时重连后，重新注册监听事件，在后台完成，完成后通知RecoveryListener
         this.process.relisten();
     }
 
+    /**
+     * 监听会话超时重连后的恢复完成事件
+     *
+     * @param listener 监听器
+     */
+    public void listenRecovery(RecoveryListener listener) {
+        this.process.listenRecovery(listener);
+    }
+
+    /**
+     * 取消恢复完成事件的监听
+     *
+     * @param listener 监听器
+     */
+    public void unlistenRecovery(RecoveryListener listener) {
+        this.process.unlistenRecovery(listener);
+    }
+
     /**
      * 关闭客户端
      *
      * @throws ZkClientException
      */
     public void close() throws ZkClientException {
+        connected.completeExceptionally(new ZkClientException("zookeeper client closed. host: " + hosts));
+        executor.getMetrics().unregisterJmx();
+        locks.close();
         try {
-            if (zk != null && zk.getState().isConnected()) {
+            if (zk != null && zk.getState().isAlive()) {
                 zk.close();
             }
         } catch (InterruptedException e) {
@@ -471,17 +1029,390 @@ public class ZkClient {
 
     /**
      * 判断节点是否存在
+     * 路径在本地缓存范围内时直接返回缓存结果
      *
      * @param path
      * @return
      * @throws ZkClientException
      */
-    public boolean exists(String path) throws ZkClientException {
-        this.checkStatus();
+    public boolean exists(final String path) throws ZkClientException {
+        TreeCache cache = this.process.getCache(path);
+        if (cache != null) {
+            return cache.exists(path);
+        }
+        return this.coalescer.execute(ReadCoalescer.EXISTS, path, false, executor.wrap("exists", path, "exists node " + path, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return zk.exists(path, false) != null;
+            }
+        }, true), ReadCoalescer.COPY_NONE);
+    }
+
+    /**
+     * 异步获取节点下的数据
+     *
+     * @param path 节点路径
+     * @return 节点数据，失败时以ZkClientException结束
+     */
+    public CompletableFuture<byte[]> getDataAsync(String path) {
+        return getDataAsync(path, false);
+    }
+
+    /**
+     * 异步获取节点下的数据
+     * 回调在zookeeper事件线程中执行，不要在回调中调用同步接口
+     *
+     * @param path    节点路径
+     * @param watcher 是否对该节点进行数据变动监听（只能收到一次变动消息）
+     * @return 节点数据，失败时以ZkClientException结束
+     */
+    public CompletableFuture<byte[]> getDataAsync(final String path, final boolean watcher) {
+        return this.coalescer.executeAsync(ReadCoalescer.GET_DATA, path, watcher, executor.wrapAsync("getData", path, new Supplier<CompletableFuture<byte[]>>() {
+            @Override
+            public CompletableFuture<byte[]> get() {
+                return readDataAsync(path, watcher);
+            }
+        }, true), ReadCoalescer.COPY_DATA);
+    }
+
+    /**
+     * 异步获取节点下的数据及节点状态
+     * 需要返回Stat，不与其它读请求合并
+     *
+     * @param path    节点路径
+     * @param watcher 是否对该节点进行数据变动监听（只能收到一次变动消息）
+     * @param stat    输出：节点状态，在返回结果完成之前填充
+     * @return 节点数据，失败时以ZkClientException结束
+     */
+    public CompletableFuture<byte[]> getDataAsync(final String path, final boolean watcher, final Stat stat) {
+        return this.executor.callAsync("getData", path, 0, new Supplier<CompletableFuture<byte[]>>() {
+            @Override
+            public CompletableFuture<byte[]> get() {
+                final ZkFuture<byte[]> future = new ZkFuture<byte[]>("getData node " + path, path);
+                if (checkStatus(future)) {
+                    zk.getData(path, watcher, new AsyncCallback.DataCallback() {
+                        @Override
+                        public void processResult(int rc, String path, Object ctx, byte[] data, Stat result) {
+                            if (result != null) {
+                                copyStat(result, stat);
+                            }
+                            future.done(rc, data);
+                        }
+                    }, null);
+                }
+                return future;
+            }
+        }, true);
+    }
+
+    private CompletableFuture<byte[]> readDataAsync(String path, boolean watcher) {
+        final ZkFuture<byte[]> future = new ZkFuture<byte[]>("getData node " + path, path);
+        if (this.checkStatus(future)) {
+            this.zk.getData(path, watcher, new AsyncCallback.DataCallback() {
+                @Override
+                public void processResult(int rc, String path, Object ctx, byte[] data, Stat stat) {
+                    future.done(rc, data);
+                }
+            }, null);
+        }
+        return future;
+    }
+
+    /**
+     * 异步插入数据
+     *
+     * @param path 节点路径
+     * @param data 数据
+     * @return 失败时以ZkClientException结束
+     */
+    public CompletableFuture<Void> setDataAsync(final String path, final byte[] data) {
+        this.coalescer.invalidate(path);
+        return this.executor.callAsync("setData", path, data == null ? 0 : data.length, new Supplier<CompletableFuture<Void>>() {
+            @Override
+            public CompletableFuture<Void> get() {
+                return writeDataAsync(path, data);
+            }
+        }, true);
+    }
+
+    private CompletableFuture<Void> writeDataAsync(String path, byte[] data) {
+        final ZkFuture<Void> future = new ZkFuture<Void>("setData node " + path, path);
+        if (this.checkStatus(future)) {
+            this.zk.setData(path, data, -1, new AsyncCallback.StatCallback() {
+                @Override
+                public void processResult(int rc, String path, Object ctx, Stat stat) {
+                    future.done(rc, null);
+                }
+            }, null);
+        }
+        return future;
+    }
+
+    /**
+     * 异步获取child节点信息
+     *
+     * @param path 节点路径
+     * @return 子节点名称列表
+     */
+    public CompletableFuture<List<String>> getChildAsync(String path) {
+        return this.getChildAsync(path, false);
+    }
+
+    /**
+     * 异步获取child节点信息
+     *
+     * @param path    节点路径
+     * @param watcher 是否监听子节点变化
+     * @return 子节点名称列表
+     */
+    public CompletableFuture<List<String>> getChildAsync(final String path, final boolean watcher) {
+        return this.coalescer.executeAsync(ReadCoalescer.GET_CHILDREN, path, watcher, executor.wrapAsync("getChildren", path, new Supplier<CompletableFuture<List<String>>>() {
+            @Override
+            public CompletableFuture<List<String>> get() {
+                return readChildAsync(path, watcher);
+            }
+        }, true), ReadCoalescer.COPY_CHILDREN);
+    }
+
+    /**
+     * 异步获取child节点信息及节点状态
+     * 需要返回Stat，不与其它读请求合并
+     *
+     * @param path    节点路径
+     * @param watcher 是否监听子节点变化
+     * @param stat    输出：节点状态，在返回结果完成之前填充
+     * @return 子节点名称列表
+     */
+    public CompletableFuture<List<String>> getChildAsync(final String path, final boolean watcher, final Stat stat) {
+        return this.executor.callAsync("getChildren", path, 0, new Supplier<CompletableFuture<List<String>>>() {
+            @Override
+            public CompletableFuture<List<String>> get() {
+                final ZkFuture<List<String>> future = new ZkFuture<List<String>>("getChildren node " + path, path);
+                if (checkStatus(future)) {
+                    zk.getChildren(path, watcher, new AsyncCallback.Children2Callback() {
+                        @Override
+                        public void processResult(int rc, String path, Object ctx, List<String> children, Stat result) {
+                            if (result != null) {
+                                copyStat(result, stat);
+                            }
+                            future.done(rc, children);
+                        }
+                    }, null);
+                }
+                return future;
+            }
+        }, true);
+    }
+
+    /**
+     * 异步获取child节点信息，并在节点上注册指定的watcher，子节点变化或节点删除时回调一次
+     * 不与其它读请求合并
+     *
+     * @param path    节点路径
+     * @param watcher 自定义watcher，不经过默认的事件处理
+     * @return 子节点名称列表
+     */
+    public CompletableFuture<List<String>> getChildAsync(final String path, final Watcher watcher) {
+        return this.executor.callAsync("getChildren", path, 0, new Supplier<CompletableFuture<List<String>>>() {
+            @Override
+            public CompletableFuture<List<String>> get() {
+                final ZkFuture<List<String>> future = new ZkFuture<List<String>>("getChildren node " + path, path);
+                if (checkStatus(future)) {
+                    zk.getChildren(path, watcher, new AsyncCallback.ChildrenCallback() {
+                        @Override
+                        public void processResult(int rc, String path, Object ctx, List<String> children) {
+                            future.done(rc, children);
+                        }
+                    }, null);
+                }
+                return future;
+            }
+        }, true);
+    }
+
+    private static void copyStat(Stat from, Stat to) {
+        to.setCzxid(from.getCzxid());
+        to.setMzxid(from.getMzxid());
+        to.setCtime(from.getCtime());
+        to.setMtime(from.getMtime());
+        to.setVersion(from.getVersion());
+        to.setCversion(from.getCversion());
+        to.setAversion(from.getAversion());
+        to.setEphemeralOwner(from.getEphemeralOwner());
+        to.setDataLength(from.getDataLength());
+        to.setNumChildren(from.getNumChildren());
+        to.setPzxid(from.getPzxid());
+    }
+
+    private CompletableFuture<List<String>> readChildAsync(String path, boolean watcher) {
+        final ZkFuture<List<String>> future = new ZkFuture<List<String>>("getChildren node " + path, path);
+        if (this.checkStatus(future)) {
+            this.zk.getChildren(path, watcher, new AsyncCallback.ChildrenCallback() {
+                @Override
+                public void processResult(int rc, String path, Object ctx, List<String> children) {
+                    future.done(rc, children);
+                }
+            }, null);
+        }
+        return future;
+    }
+
+    /**
+     * 异步创建节点
+     * 不支持多层节点创建
+     *
+     * @param path 节点路径
+     * @param data 节点数据
+     * @param mode 节点类型
+     * @return 实际创建的节点路径（顺序节点带有序号）
+     */
+    public CompletableFuture<String> createAsync(final String path, final byte[] data, final CreateMode mode) {
+        this.coalescer.invalidate(path);
+        // 顺序节点重试可能重复创建，不重试；临时节点属于会话，会话超时后不重试
+        return this.executor.callAsync("create", path, data == null ? 0 : data.length, new Supplier<CompletableFuture<String>>() {
+            private int attempts = 0;
+
+            @Override
+            public CompletableFuture<String> get() {
+                return writeNodeAsync(path, data, mode, attempts++ > 0);
+            }
+        }, !mode.isSequential(), mode.isEphemeral());
+    }
+
+    /**
+     * @param retry 是否为重试，重试时节点已存在说明连接断开的那次创建已经成功
+     */
+    private CompletableFuture<String> writeNodeAsync(final String path, byte[] data, CreateMode mode, final boolean retry) {
+        final ZkFuture<String> future = new ZkFuture<String>("create node " + path + ", mode=" + mode.name(), path);
+        if (this.checkStatus(future)) {
+            this.zk.create(path, data, Ids.OPEN_ACL_UNSAFE, mode, new AsyncCallback.StringCallback() {
+                @Override
+                public void processResult(int rc, String p, Object ctx, String name) {
+                    if (retry && rc == KeeperException.Code.NODEEXISTS.intValue()) {
+                        future.done(KeeperException.Code.OK.intValue(), path);
+                    } else {
+                        future.done(rc, name);
+                    }
+                }
+            }, null);
+        }
+        return future;
+    }
+
+    /**
+     * 异步删除节点
+     *
+     * @param path 路径
+     * @return 失败时以ZkClientException结束
+     */
+    public CompletableFuture<Void> deleteAsync(final String path) {
+        this.coalescer.invalidate(path);
+        return this.executor.callAsync("delete", path, 0, new Supplier<CompletableFuture<Void>>() {
+            private int attempts = 0;
+
+            @Override
+            public CompletableFuture<Void> get() {
+                return removeNodeAsync(path, attempts++ > 0);
+            }
+        }, true);
+    }
+
+    /**
+     * @param retry 是否为重试，重试时节点已不存在说明连接断开的那次删除已经成功
+     */
+    private CompletableFuture<Void> removeNodeAsync(String path, final boolean retry) {
+        final ZkFuture<Void> future = new ZkFuture<Void>("delete node " + path, path);
+        if (this.checkStatus(future)) {
+            this.zk.delete(path, -1, new AsyncCallback.VoidCallback() {
+                @Override
+                public void processResult(int rc, String path, Object ctx) {
+                    future.done(retry && rc == KeeperException.Code.NONODE.intValue() ? KeeperException.Code.OK.intValue() : rc, null);
+                }
+            }, null);
+        }
+        return future;
+    }
+
+    /**
+     * 异步判断节点是否存在
+     *
+     * @param path 路径
+     * @return 节点是否存在
+     */
+    public CompletableFuture<Boolean> existsAsync(final String path) {
+        return this.existsAsync(path, false);
+    }
+
+    /**
+     * 异步判断节点是否存在
+     *
+     * @param path    节点路径
+     * @param watcher 是否监听节点的创建、删除和数据变化（只能收到一次变动消息）
+     * @return 是否存在
+     */
+    public CompletableFuture<Boolean> existsAsync(final String path, final boolean watcher) {
+        return this.coalescer.executeAsync(ReadCoalescer.EXISTS, path, watcher, executor.wrapAsync("exists", path, new Supplier<CompletableFuture<Boolean>>() {
+            @Override
+            public CompletableFuture<Boolean> get() {
+                return readExistsAsync(path, watcher);
+            }
+        }, true), ReadCoalescer.COPY_NONE);
+    }
+
+    private CompletableFuture<Boolean> readExistsAsync(String path, boolean watcher) {
+        final ZkFuture<Boolean> future = new ZkFuture<Boolean>("exists node " + path, path);
+        if (this.checkStatus(future)) {
+            this.zk.exists(path, watcher, new AsyncCallback.StatCallback() {
+                @Override
+                public void processResult(int rc, String path, Object ctx, Stat stat) {
+                    if (rc == KeeperException.Code.NONODE.intValue()) {
+                        future.complete(false);
+                    } else {
+                        future.done(rc, stat != null);
+                    }
+                }
+            }, null);
+        }
+        return future;
+    }
+
+    /**
+     * 等待异步结果
+     *
+     * @param future 异步结果
+     * @return 结果
+     * @throws ZkClientException 异步操作失败
+     */
+    static <T> T await(CompletableFuture<T> future) throws ZkClientException {
         try {
-            return this.zk.exists(path, false) != null;
-        } catch (Exception e) {
-            throw new ZkClientException("exists node " + path, e);
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ZkClientException) {
+                throw (ZkClientException) e.getCause();
+            }
+            throw new ZkClientException("Async operation fail.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ZkClientException("Async operation interrupted.", e);
+        }
+    }
+
+    /**
+     * 异步接口的连接状态检查，未连接时直接以异常结束future
+     *
+     * @param future 异步结果
+     * @return 是否可以发送请求
+     */
+    private boolean checkStatus(ZkFuture<?> future) {
+        if (!connected.isDone() && connectPolicy == ConnectPolicy.WAIT && zk != null && zk.getState().isAlive()) {
+            // 首次连接中，请求由zookeeper客户端排队，连接成功后发出，连接失败时以ConnectionLoss结束
+            return true;
+        }
+        try {
+            return this.checkStatus();
+        } catch (ZkClientException e) {
+            future.fail(e);
+            return false;
         }
     }
 
@@ -511,9 +1442,32 @@ public class ZkClient {
         if (zk.getState().isAlive() && this.isConnection()) {
             return true;
         }
+        if (this.awaitFirstConnection()) {
+            return true;
+        }
         throw new ZkClientException("Not connected to the zookeeper server,host=" + hosts + ",state: " + zk.getState());
     }
 
+    /**
+     * 异步连接尚未首次连接成功时，按WAIT策略等待连接成功
+     *
+     * @return 是否已连接
+     */
+    private boolean awaitFirstConnection() {
+        if (connected.isDone() || connectPolicy != ConnectPolicy.WAIT) {
+            return false;
+        }
+        try {
+            connected.get(connTimeout, TimeUnit.MILLISECONDS);
+            return this.isConnection();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
     /**
      * 设置zookeeper连接状态
      *
@@ -521,6 +1475,35 @@ public class ZkClient {
      */
     public void setIsConnection(boolean isConnection) {
         this.isConnection = isConnection;
+        if (isConnection) {
+            synchronized (connMonitor) {
+                connMonitor.notifyAll();
+            }
+            if (!connected.isDone()) {
+                connected.complete(this);
+            }
+        }
+    }
+
+    /**
+     * 挂起等待，直到ZkWatcher收到SyncConnected
+     *
+     * @param timeout 最长等待毫秒数
+     * @return 是否已连接
+     * @throws InterruptedException
+     */
+    boolean awaitConnected(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized (connMonitor) {
+            while (!this.isConnection) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                connMonitor.wait(remaining);
+            }
+        }
+        return true;
     }
 
     public boolean isConnection() {
@@ -528,15 +1511,74 @@ public class ZkClient {
     }
 
     /**
-     * 获取锁对象
+     * @return 实际发送到服务端的读请求数（getData/getChild/exists）
+     */
+    public long getReadRequestCount() {
+        return coalescer.getRequests();
+    }
+
+    /**
+     * @return 因相同请求已在途而被合并、未发送到服务端的读请求数
+     */
+    public long getCoalescedReadCount() {
+        return coalescer.getCoalesced();
+    }
+
+    /**
+     * 获取操作指标：每个操作的次数、延迟分位数、按错误码的失败次数、数据大小，
+     * 以及监听器回调队列的深度、队列满的次数和回调延迟
+     * 合并的读请求只记录实际发送的那一次
      *
-     * @param lockPath
-     * @return
+     * @return ZkMetrics
+     */
+    public ZkMetrics getMetrics() {
+        return executor.getMetrics();
+    }
+
+    /**
+     * 获取锁对象，每个路径一个独立的锁，同一路径返回同一对象
+     * 锁空闲超过lockIdleTimeout后被移除，空的锁目录同时删除
+     * 构建时设置了lockCohort时返回进程内分组的CohortLock
+     *
+     * @param lockPath 锁的目录
+     * @return 锁对象
      */
     public Lock getLock(String lockPath) {
-        SimpleLock lock = SimpleLock.getInstance();
-        lock.init(this, lockPath);
-        return lock;
+        return locks.getLock(lockPath);
+    }
+
+    /**
+     * 获取按顺序节点排队的锁，每个等待者只监听前一个节点，释放锁只唤醒下一个等待者
+     * 与getLock()的排队方式相同，区别是每次调用返回新对象，不经过注册表缓存，也不会在空闲后被回收、删除锁目录，
+     * 不受lockCohort设置影响；同一客户端内与getLock()按路径共用重入状态，设置lockCohort时同样适用
+     *
+     * @param lockPath 锁的目录
+     * @return 锁对象
+     */
+    public Lock getSequenceLock(String lockPath) {
+        return locks.newLock(lockPath);
+    }
+
+    /**
+     * 获取读写锁，读锁共享，写锁独占
+     * 每次调用返回新对象，同一客户端内按路径共用重入状态
+     *
+     * @param lockPath 锁的目录
+     * @return 读写锁
+     */
+    public ReadWriteLock getReadWriteLock(String lockPath) {
+        return locks.newReadWriteLock(lockPath);
+    }
+
+    /**
+     * 获取计数信号量，最多同时发放maxLeases个许可
+     *
+     * @param path      信号量的目录
+     * @param maxLeases 许可总数
+     * @return 信号量
+     */
+    public DistributedSemaphore getSemaphore(String path, int maxLeases) {
+        return new DistributedSemaphore(this, path, maxLeases);
     }
 
     /**
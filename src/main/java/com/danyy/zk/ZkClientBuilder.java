@@ -0,0 +1,269 @@
+package com.danyy.zk;
+
+import com.danyy.zk.listener.DispatchMode;
+import com.danyy.zk.listener.ListenerProcessPool;
+import com.danyy.zk.listener.OverflowPolicy;
+import com.danyy.zk.lock.LockRegistry;
+import com.danyy.zk.metrics.MetricsCollector;
+
+/**
+ * ZkClient构建器
+ * <pre>
+ * ZkClient client = ZkClient.builder("10.0.1.121:2181")
+ *         .sessionTimeout(5000)
+ *         .asyncConnect(true)
+ *         .build();
+ * client.connected().get();
+ * </pre>
+ */
+public class ZkClientBuilder {
+
+    private final String hosts;
+    private int sessionTimeout = 3000;
+    private int connTimeout = 3000;
+    private int watcherThreadSize = 1;
+    private DispatchMode dispatchMode = DispatchMode.UNORDERED;
+    private int listenerQueueCapacity = ListenerProcessPool.DEFAULT_QUEUE_CAPACITY;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+    private int recoveryMaxInFlight = 200;
+    private int recoveryRate = 0;
+    private long lockIdleTimeout = LockRegistry.DEFAULT_IDLE_TIMEOUT;
+    private int maxLocks = LockRegistry.DEFAULT_MAX_LOCKS;
+    private int lockCohortHandoffs = 0;
+    private boolean asyncConnect = false;
+    private ConnectPolicy connectPolicy = ConnectPolicy.WAIT;
+    private RetryPolicy retryPolicy = RetryPolicy.none();
+    private MetricsCollector metricsCollector;
+    private String jmxName;
+
+    /**
+     * @param hosts zookeeper服务地址 10.0.1.121:2181,10.0.1.131:2181
+     */
+    public ZkClientBuilder(String hosts) {
+        this.hosts = hosts;
+    }
+
+    /**
+     * @param sessionTimeout 会话超时时间
+     * @return this
+     */
+    public ZkClientBuilder sessionTimeout(int sessionTimeout) {
+        this.sessionTimeout = sessionTimeout;
+        return this;
+    }
+
+    /**
+     * @param connTimeout 连接超时时间
+     * @return this
+     */
+    public ZkClientBuilder connTimeout(int connTimeout) {
+        this.connTimeout = connTimeout;
+        return this;
+    }
+
+    /**
+     * @param watcherThreadSize 处理watcher的线程数
+     * @return this
+     */
+    public ZkClientBuilder watcherThreadSize(int watcherThreadSize) {
+        this.watcherThreadSize = watcherThreadSize;
+        return this;
+    }
+
+    /**
+     * @param dispatchMode 监听器回调的分发方式，ORDERED时同一路径的回调按顺序执行，
+     *                     可以将watcherThreadSize设置为CPU核数并行处理不同路径
+     * @return this
+     */
+    public ZkClientBuilder dispatchMode(DispatchMode dispatchMode) {
+        this.dispatchMode = dispatchMode;
+        return this;
+    }
+
+    /**
+     * @param listenerQueueCapacity 监听器回调队列容量，ORDERED模式下为每个分片的容量，默认100
+     * @return this
+     */
+    public ZkClientBuilder listenerQueueCapacity(int listenerQueueCapacity) {
+        this.listenerQueueCapacity = listenerQueueCapacity;
+        return this;
+    }
+
+    /**
+     * @param overflowPolicy 监听器回调队列满时的处理策略，默认阻塞zookeeper事件线程等待队列空位，超时后丢弃回调
+     * @return this
+     */
+    public ZkClientBuilder overflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+        return this;
+    }
+
+    /**
+     * @param recoveryMaxInFlight 会话超时重连后恢复监听和顽固节点时的最大在途请求数，默认200
+     * @return this
+     */
+    public ZkClientBuilder recoveryMaxInFlight(int recoveryMaxInFlight) {
+        this.recoveryMaxInFlight = recoveryMaxInFlight;
+        return this;
+    }
+
+    /**
+     * @param recoveryRate 会话超时重连后恢复时每秒最多发送的请求数，避免大量客户端同时恢复压垮集群，默认0不限速
+     * @return this
+     */
+    public ZkClientBuilder recoveryRate(int recoveryRate) {
+        this.recoveryRate = recoveryRate;
+        return this;
+    }
+
+    /**
+     * @param lockIdleTimeout getLock()缓存的锁空闲多久后移除并删除空的锁目录（毫秒），默认60000
+     * @return this
+     */
+    public ZkClientBuilder lockIdleTimeout(long lockIdleTimeout) {
+        this.lockIdleTimeout = lockIdleTimeout;
+        return this;
+    }
+
+    /**
+     * @param maxLocks getLock()缓存的锁超过该数量时不等空闲超时立即移除空闲的锁，默认10000
+     * @return this
+     */
+    public ZkClientBuilder maxLocks(int maxLocks) {
+        this.maxLocks = maxLocks;
+        return this;
+    }
+
+    /**
+     * @param lockCohortHandoffs 大于0时getLock()返回进程内分组的锁：本地线程先在进程内排队，只有一个线程持有zookeeper节点，
+     *                           释放时直接交给本地等待的线程，连续交接该次数后删除节点让其它进程获取；默认0不分组
+     * @return this
+     */
+    public ZkClientBuilder lockCohort(int lockCohortHandoffs) {
+        this.lockCohortHandoffs = lockCohortHandoffs;
+        return this;
+    }
+
+    /**
+     * @param asyncConnect true时build()不等待连接成功，在后台建立连接，通过ZkClient.connected()获取连接结果
+     * @return this
+     */
+    public ZkClientBuilder asyncConnect(boolean asyncConnect) {
+        this.asyncConnect = asyncConnect;
+        return this;
+    }
+
+    /**
+     * @param connectPolicy 异步连接时，首次连接成功之前发起的操作的处理策略
+     * @return this
+     */
+    public ZkClientBuilder connectPolicy(ConnectPolicy connectPolicy) {
+        this.connectPolicy = connectPolicy;
+        return this;
+    }
+
+    /**
+     * @param retryPolicy 操作失败（连接断开、可重试的错误码）时的重试策略，默认不重试
+     * @return this
+     */
+    public ZkClientBuilder retryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
+    /**
+     * @param metricsCollector 自定义指标收集，与内置的ZkClient.getMetrics()同时生效
+     * @return this
+     */
+    public ZkClientBuilder metricsCollector(MetricsCollector metricsCollector) {
+        this.metricsCollector = metricsCollector;
+        return this;
+    }
+
+    /**
+     * @param jmxName 不为null时将操作指标注册到JMX：com.danyy.zk:type=ZkClient,name={jmxName},op={op}
+     * @return this
+     */
+    public ZkClientBuilder jmxName(String jmxName) {
+        this.jmxName = jmxName;
+        return this;
+    }
+
+    /**
+     * 创建客户端
+     *
+     * @return ZkClient
+     * @throws ZkClientException 同步连接失败
+     */
+    public ZkClient build() throws ZkClientException {
+        return new ZkClient(this);
+    }
+
+    String getHosts() {
+        return hosts;
+    }
+
+    int getSessionTimeout() {
+        return sessionTimeout;
+    }
+
+    int getConnTimeout() {
+        return connTimeout;
+    }
+
+    int getWatcherThreadSize() {
+        return watcherThreadSize;
+    }
+
+    DispatchMode getDispatchMode() {
+        return dispatchMode;
+    }
+
+    int getListenerQueueCapacity() {
+        return listenerQueueCapacity;
+    }
+
+    OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    int getRecoveryMaxInFlight() {
+        return recoveryMaxInFlight;
+    }
+
+    int getRecoveryRate() {
+        return recoveryRate;
+    }
+
+    long getLockIdleTimeout() {
+        return lockIdleTimeout;
+    }
+
+    int getMaxLocks() {
+        return maxLocks;
+    }
+
+    int getLockCohortHandoffs() {
+        return lockCohortHandoffs;
+    }
+
+    boolean isAsyncConnect() {
+        return asyncConnect;
+    }
+
+    ConnectPolicy getConnectPolicy() {
+        return connectPolicy;
+    }
+
+    RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    MetricsCollector getMetricsCollector() {
+        return metricsCollector;
+    }
+
+    String getJmxName() {
+        return jmxName;
+    }
+}
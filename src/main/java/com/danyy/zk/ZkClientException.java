@@ -1,5 +1,7 @@
 package com.danyy.zk;
 
+import org.apache.zookeeper.KeeperException;
+
 /**
  * Author: xiajun
  * Date: 14/5/20
@@ -16,4 +18,16 @@ public class ZkClientException extends RuntimeException {
     public ZkClientException(Exception e) {
         super(e);
     }
+
+    /**
+     * 获取zookeeper错误码
+     *
+     * @return 由KeeperException引起时返回其错误码，否则返回null
+     */
+    public KeeperException.Code getCode() {
+        if (getCause() instanceof KeeperException) {
+            return ((KeeperException) getCause()).code();
+        }
+        return null;
+    }
 }
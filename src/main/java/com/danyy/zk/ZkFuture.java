@@ -0,0 +1,50 @@
+package com.danyy.zk;
+
+import org.apache.zookeeper.KeeperException;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 异步操作结果
+ * 由zookeeper的AsyncCallback回调完成，错误码按同步接口的方式转换为ZkClientException
+ *
+ * @param <T> 操作结果类型
+ */
+class ZkFuture<T> extends CompletableFuture<T> {
+
+    //异常描述，与同步接口保持一致，如 "getData node /a"
+    private final String message;
+    private final String path;
+
+    ZkFuture(String message, String path) {
+        this.message = message;
+        this.path = path;
+    }
+
+    /**
+     * 根据zookeeper返回码完成该结果
+     *
+     * @param rc    AsyncCallback返回码
+     * @param value 成功时的结果
+     */
+    void done(int rc, T value) {
+        if (rc == KeeperException.Code.OK.intValue()) {
+            this.complete(value);
+        } else {
+            this.fail(KeeperException.create(KeeperException.Code.get(rc), path));
+        }
+    }
+
+    /**
+     * 以异常完成该结果
+     *
+     * @param e 异常
+     */
+    void fail(Exception e) {
+        if (e instanceof ZkClientException) {
+            this.completeExceptionally(e);
+        } else {
+            this.completeExceptionally(new ZkClientException(message, e));
+        }
+    }
+}
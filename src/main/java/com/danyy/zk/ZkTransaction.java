@@ -0,0 +1,141 @@
+package com.danyy.zk;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.ZooDefs.Ids;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 批量事务操作
+ * 收集create/setData/delete/check操作，通过一次zookeeper multi请求原子提交，要么全部成功，要么全部失败
+ * <pre>
+ * client.transaction()
+ *       .create("/app/a", data, CreateMode.PERSISTENT)
+ *       .setData("/app/b", data)
+ *       .delete("/app/c")
+ *       .commit();
+ * </pre>
+ * 该对象非线程安全
+ */
+public class ZkTransaction {
+
+    private final ZkClient client;
+    //待提交的操作
+    private final List<Op> ops = new ArrayList<Op>();
+
+    ZkTransaction(ZkClient client) {
+        this.client = client;
+    }
+
+    /**
+     * 创建节点
+     *
+     * @param path 节点路径
+     * @param data 节点数据
+     * @param mode 节点类型
+     * @return this
+     */
+    public ZkTransaction create(String path, byte[] data, CreateMode mode) {
+        ops.add(Op.create(path, data, Ids.OPEN_ACL_UNSAFE, mode));
+        return this;
+    }
+
+    /**
+     * 创建永久节点
+     *
+     * @param path 节点路径
+     * @param data 节点数据
+     * @return this
+     */
+    public ZkTransaction create(String path, byte[] data) {
+        return this.create(path, data, CreateMode.PERSISTENT);
+    }
+
+    /**
+     * 插入数据，不检查版本
+     *
+     * @param path 节点路径
+     * @param data 数据
+     * @return this
+     */
+    public ZkTransaction setData(String path, byte[] data) {
+        return this.setData(path, data, -1);
+    }
+
+    /**
+     * 插入数据
+     *
+     * @param path    节点路径
+     * @param data    数据
+     * @param version 期望的数据版本，-1 表示不检查
+     * @return this
+     */
+    public ZkTransaction setData(String path, byte[] data, int version) {
+        ops.add(Op.setData(path, data, version));
+        return this;
+    }
+
+    /**
+     * 删除节点，不检查版本
+     *
+     * @param path 节点路径
+     * @return this
+     */
+    public ZkTransaction delete(String path) {
+        return this.delete(path, -1);
+    }
+
+    /**
+     * 删除节点
+     *
+     * @param path    节点路径
+     * @param version 期望的数据版本，-1 表示不检查
+     * @return this
+     */
+    public ZkTransaction delete(String path, int version) {
+        ops.add(Op.delete(path, version));
+        return this;
+    }
+
+    /**
+     * 检查节点版本，版本不一致时整个事务失败
+     *
+     * @param path    节点路径
+     * @param version 期望的数据版本
+     * @return this
+     */
+    public ZkTransaction check(String path, int version) {
+        ops.add(Op.check(path, version));
+        return this;
+    }
+
+    /**
+     * @return 已收集的操作数
+     */
+    public int size() {
+        return ops.size();
+    }
+
+    /**
+     * 提交事务
+     *
+     * @return 每个操作的结果，与添加顺序一致
+     * @throws ZkTransactionException 事务失败，可通过getResults()查看每个操作的结果；没有结果时事务可能已经提交
+     */
+    public List<OpResult> commit() throws ZkClientException {
+        return client.multi(ops);
+    }
+
+    /**
+     * 异步提交事务
+     *
+     * @return 每个操作的结果，事务失败时以ZkTransactionException结束
+     */
+    public CompletableFuture<List<OpResult>> commitAsync() {
+        return client.multiAsync(ops);
+    }
+}
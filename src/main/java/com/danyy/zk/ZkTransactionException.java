@@ -0,0 +1,34 @@
+package com.danyy.zk;
+
+import org.apache.zookeeper.OpResult;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 批量事务执行失败
+ * 服务端返回了每个操作的结果时（getResults()不为空），事务中的所有操作均未生效；
+ * 连接断开等没有结果的情况下事务可能已经提交，需要读取节点确认
+ */
+public class ZkTransactionException extends ZkClientException {
+    private static final long serialVersionUID = 1L;
+
+    //每个操作的结果，失败的操作为OpResult.ErrorResult
+    private final List<OpResult> results;
+    //第一个失败操作的下标，未知时为-1
+    private final int failedIndex;
+
+    public ZkTransactionException(String message, Exception e, List<OpResult> results, int failedIndex) {
+        super(message, e);
+        this.results = results == null ? Collections.<OpResult>emptyList() : results;
+        this.failedIndex = failedIndex;
+    }
+
+    public List<OpResult> getResults() {
+        return results;
+    }
+
+    public int getFailedIndex() {
+        return failedIndex;
+    }
+}
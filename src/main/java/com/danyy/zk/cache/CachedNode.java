@@ -0,0 +1,66 @@
+package com.danyy.zk.cache;
+
+import org.apache.zookeeper.data.Stat;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 本地缓存的节点信息
+ */
+public class CachedNode {
+
+    private final String path;
+    //节点数据
+    private volatile byte[] data;
+    //节点状态
+    private volatile Stat stat;
+    //子节点名称
+    private final Set<String> children = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    //子节点列表是否已读取
+    private volatile boolean childrenLoaded = false;
+
+    CachedNode(String path) {
+        this.path = path;
+    }
+
+    void update(byte[] data, Stat stat) {
+        this.data = data;
+        this.stat = stat;
+    }
+
+    void childrenLoaded() {
+        this.childrenLoaded = true;
+    }
+
+    /**
+     * @return 数据和子节点列表是否都已读取，未读取完成时缓存中的数据不可用
+     */
+    public boolean isLoaded() {
+        return stat != null && childrenLoaded;
+    }
+
+    /**
+     * @return 子节点列表是否已读取
+     */
+    public boolean isChildrenLoaded() {
+        return childrenLoaded;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public Stat getStat() {
+        return stat;
+    }
+
+    Set<String> getChildren() {
+        return children;
+    }
+}
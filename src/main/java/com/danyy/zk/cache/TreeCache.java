@@ -0,0 +1,360 @@
+package com.danyy.zk.cache;
+
+import com.danyy.zk.ZkClient;
+import com.danyy.zk.ZkClientException;
+import org.apache.zookeeper.AsyncCallback;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 子树本地缓存
+ * 缓存根节点及其所有子孙节点的数据、Stat和子节点列表，通过zookeeper的默认watcher（经WatcherProcess分发）
+ * 接收节点变化事件并异步刷新，getData/getChild/exists 可直接在本地返回结果
+ * <p>
+ * 缓存是最终一致的，需要线性一致读的调用方先调用 ZkClient.sync(path)，再使用带watcher参数的读接口直接读取服务端
+ */
+public class TreeCache {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(TreeCache.class);
+
+    private final ZkClient zkClient;
+    //缓存的根节点
+    private final String root;
+    private final ConcurrentHashMap<String, CachedNode> nodes = new ConcurrentHashMap<String, CachedNode>();
+    //未返回的刷新请求数，用于判断初次加载是否完成
+    private final AtomicInteger outstanding = new AtomicInteger(0);
+    private final CountDownLatch loaded = new CountDownLatch(1);
+    //刷新请求因连接问题失败，缓存可能缺少watch，需要重建
+    private volatile boolean dirty = false;
+    //重建中，重建发出的刷新请求全部返回后才清除dirty
+    private volatile boolean rebuilding = false;
+    //重建期间是否有刷新请求失败
+    private volatile boolean rebuildFailed = false;
+    private volatile boolean closed = false;
+
+    /**
+     * @param zkClient ZkClient对象
+     * @param root     缓存的根节点
+     */
+    public TreeCache(ZkClient zkClient, String root) {
+        this.zkClient = zkClient;
+        this.root = root;
+    }
+
+    /**
+     * 开始缓存，阻塞直到子树初次加载完成
+     *
+     * @param timeout 等待加载完成的毫秒数
+     * @throws ZkClientException 加载超时或被中断
+     */
+    public void start(long timeout) throws ZkClientException {
+        nodes.put(root, new CachedNode(root));
+        // 发送请求期间持有一个计数，避免先返回的回调把计数减到0提前结束加载
+        outstanding.incrementAndGet();
+        try {
+            this.refresh(root);
+        } finally {
+            this.complete();
+        }
+        try {
+            if (!loaded.await(timeout, TimeUnit.MILLISECONDS)) {
+                throw new ZkClientException("Load tree cache timeout, root=" + root);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ZkClientException("Load tree cache interrupted, root=" + root, e);
+        }
+    }
+
+    /**
+     * 重新加载整棵子树，用于session超时重连或刷新请求失败后恢复watch
+     */
+    public void rebuild() {
+        if (closed) {
+            return;
+        }
+        // 刷新请求全部返回之前缓存可能缺少watch或数据过期，不用于读取
+        dirty = true;
+        rebuildFailed = false;
+        rebuilding = true;
+        nodes.putIfAbsent(root, new CachedNode(root));
+        outstanding.incrementAndGet();
+        try {
+            // 新会话中没有任何watch，所有已缓存的节点都需要重新读取
+            for (String path : nodes.keySet()) {
+                this.refresh(path);
+            }
+        } finally {
+            this.complete();
+        }
+        LOGGER.debug("Rebuild tree cache:{}", root);
+    }
+
+    /**
+     * 停止缓存，不再处理事件，缓存不再用于读取
+     */
+    public void close() {
+        closed = true;
+        nodes.clear();
+    }
+
+    /**
+     * @return 缓存是否可用于读取
+     */
+    public boolean isReady() {
+        return !closed && !dirty && loaded.getCount() == 0;
+    }
+
+    /**
+     * 判断缓存能否回答该路径的读取
+     * 节点已在缓存中但数据或子节点列表尚未读取完成时不能使用；
+     * 节点不在缓存中时，最近的已缓存祖先节点的子节点列表已读取才能确定节点不存在
+     *
+     * @param path 节点路径
+     * @return boolean
+     */
+    public boolean canServe(String path) {
+        CachedNode node = nodes.get(path);
+        if (node != null) {
+            return node.isLoaded();
+        }
+        String parent = path;
+        while (!parent.equals(root)) {
+            int index = parent.lastIndexOf('/');
+            parent = index <= 0 ? "/" : parent.substring(0, index);
+            CachedNode ancestor = nodes.get(parent);
+            if (ancestor != null) {
+                return ancestor.isChildrenLoaded();
+            }
+        }
+        // 根节点不存在
+        return true;
+    }
+
+    /**
+     * 判断路径是否在该缓存的子树内
+     *
+     * @param path 节点路径
+     * @return boolean
+     */
+    public boolean covers(String path) {
+        return path.equals(root) || path.startsWith(root.equals("/") ? "/" : root + "/");
+    }
+
+    public String getRoot() {
+        return root;
+    }
+
+    /**
+     * 获取缓存的节点
+     *
+     * @param path 节点路径
+     * @return 节点不存在时返回null
+     */
+    public CachedNode getNode(String path) {
+        return nodes.get(path);
+    }
+
+    /**
+     * 获取缓存的节点数据
+     *
+     * @param path 节点路径
+     * @return 节点不存在时返回null
+     */
+    public byte[] getData(String path) {
+        CachedNode node = nodes.get(path);
+        return node == null ? null : node.getData();
+    }
+
+    /**
+     * 获取缓存的子节点列表
+     *
+     * @param path 节点路径
+     * @return 节点不存在时返回null
+     */
+    public List<String> getChildren(String path) {
+        CachedNode node = nodes.get(path);
+        return node == null ? null : new ArrayList<String>(node.getChildren());
+    }
+
+    /**
+     * 判断缓存中节点是否存在
+     *
+     * @param path 节点路径
+     * @return boolean
+     */
+    public boolean exists(String path) {
+        return nodes.containsKey(path);
+    }
+
+    /**
+     * 处理zookeeper节点事件
+     *
+     * @param event 事件
+     */
+    public void process(WatchedEvent event) {
+        String path = event.getPath();
+        if (closed || path == null || !this.covers(path)) {
+            return;
+        }
+        EventType type = event.getType();
+        if (type == EventType.NodeCreated) {
+            if (path.equals(root)) {
+                nodes.putIfAbsent(root, new CachedNode(root));
+                this.refresh(root);
+            }
+        } else if (type == EventType.NodeDeleted) {
+            this.remove(path);
+        } else if (type == EventType.NodeDataChanged) {
+            this.refreshData(path);
+        } else if (type == EventType.NodeChildrenChanged) {
+            this.refreshChildren(path);
+        }
+    }
+
+    /**
+     * 刷新节点数据和子节点
+     */
+    private void refresh(String path) {
+        this.refreshData(path);
+        this.refreshChildren(path);
+    }
+
+    /**
+     * 异步读取节点数据并设置watch
+     */
+    private void refreshData(final String path) {
+        ZooKeeper zk = zkClient.getZookeeper();
+        outstanding.incrementAndGet();
+        zk.getData(path, true, new AsyncCallback.DataCallback() {
+            @Override
+            public void processResult(int rc, String p, Object ctx, byte[] data, Stat stat) {
+                if (rc == KeeperException.Code.OK.intValue()) {
+                    CachedNode node = nodes.get(path);
+                    if (node != null) {
+                        node.update(data, stat);
+                    }
+                } else {
+                    onError(path, rc);
+                }
+                complete();
+            }
+        }, null);
+    }
+
+    /**
+     * 异步读取子节点列表并设置watch，新增的子节点递归加载，删除的子节点移除整棵子树
+     */
+    private void refreshChildren(final String path) {
+        ZooKeeper zk = zkClient.getZookeeper();
+        outstanding.incrementAndGet();
+        zk.getChildren(path, true, new AsyncCallback.ChildrenCallback() {
+            @Override
+            public void processResult(int rc, String p, Object ctx, List<String> children) {
+                if (rc == KeeperException.Code.OK.intValue()) {
+                    CachedNode node = nodes.get(path);
+                    if (node != null) {
+                        String prefix = path.equals("/") ? "/" : path + "/";
+                        Set<String> current = new HashSet<String>(children);
+                        for (String child : node.getChildren()) {
+                            if (!current.contains(child)) {
+                                node.getChildren().remove(child);
+                                remove(prefix + child);
+                            }
+                        }
+                        for (String child : children) {
+                            if (node.getChildren().add(child)) {
+                                String cpath = prefix + child;
+                                nodes.put(cpath, new CachedNode(cpath));
+                                refresh(cpath);
+                            }
+                        }
+                        node.childrenLoaded();
+                    }
+                } else {
+                    onError(path, rc);
+                }
+                complete();
+            }
+        }, null);
+    }
+
+    /**
+     * 刷新请求失败处理
+     * 节点不存在时移除，其它错误（如连接断开）标记缓存需要重建
+     */
+    private void onError(String path, int rc) {
+        if (rc == KeeperException.Code.NONODE.intValue()) {
+            this.remove(path);
+        } else {
+            dirty = true;
+            rebuildFailed = true;
+            LOGGER.warn("Refresh tree cache node:{} fail, code:{}", path, KeeperException.Code.get(rc));
+        }
+    }
+
+    /**
+     * 移除节点及其子树，根节点被删除时通过exists监听其重新创建
+     */
+    private void remove(String path) {
+        CachedNode node = nodes.remove(path);
+        if (node != null) {
+            String prefix = path.equals("/") ? "/" : path + "/";
+            for (String child : node.getChildren()) {
+                this.remove(prefix + child);
+            }
+            int index = path.lastIndexOf('/');
+            CachedNode parent = nodes.get(index == 0 ? "/" : path.substring(0, index));
+            if (parent != null) {
+                parent.getChildren().remove(path.substring(index + 1));
+            }
+        }
+        if (path.equals(root) && !closed) {
+            this.watchRoot();
+        }
+    }
+
+    /**
+     * 根节点不存在时设置exists watch，创建后收到NodeCreated事件
+     */
+    private void watchRoot() {
+        outstanding.incrementAndGet();
+        zkClient.getZookeeper().exists(root, true, new AsyncCallback.StatCallback() {
+            @Override
+            public void processResult(int rc, String p, Object ctx, Stat stat) {
+                if (rc == KeeperException.Code.OK.intValue() && !nodes.containsKey(root)) {
+                    // 设置watch前根节点已被重新创建
+                    nodes.putIfAbsent(root, new CachedNode(root));
+                    refresh(root);
+                } else if (rc != KeeperException.Code.OK.intValue() && rc != KeeperException.Code.NONODE.intValue()) {
+                    onError(root, rc);
+                }
+                complete();
+            }
+        }, null);
+    }
+
+    private void complete() {
+        if (outstanding.decrementAndGet() == 0) {
+            loaded.countDown();
+            if (rebuilding) {
+                rebuilding = false;
+                dirty = rebuildFailed;
+            }
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.danyy.zk.listener;
+
+import com.danyy.zk.ZkClientException;
+
+import java.util.List;
+
+/**
+ * 批量监听回调接口
+ * 一次子节点刷新产生的所有变化合并为一次回调；
+ * 回调线程繁忙时，排队期间同一父节点的后续变化追加到同一次回调中
+ */
+public interface BatchListener {
+    /**
+     * 监听回调函数
+     *
+     * @param path    监听的父节点路径
+     * @param created 新增的子节点，数据为创建时读取的数据
+     * @param deleted 删除的子节点，数据为null
+     * @param changed 数据变化的子节点（只有监听子节点数据时才有），同一节点只保留最新数据
+     * @throws ZkClientException
+     */
+    void listen(String path, List<Node> created, List<Node> deleted, List<Node> changed) throws ZkClientException;
+}
@@ -0,0 +1,16 @@
+package com.danyy.zk.listener;
+
+/**
+ * 监听器回调的分发方式
+ */
+public enum DispatchMode {
+    /**
+     * 所有回调提交到同一个线程池，线程数大于1时回调顺序不确定
+     */
+    UNORDERED,
+    /**
+     * 按路径分配到固定的回调线程：同一路径（子节点事件按父节点）的回调按发生顺序执行，
+     * 不同路径的回调在多个线程中并行执行
+     */
+    ORDERED
+}
@@ -0,0 +1,241 @@
+package com.danyy.zk.listener;
+
+import com.danyy.zk.ZkClientException;
+import org.apache.zookeeper.Watcher.Event.EventType;
+
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 同一节点上注册的多个监听器，共用一个zookeeper watch
+ * 监听器数组写时复制，回调时不加锁；一个监听器抛出异常不影响其它监听器，全部回调后抛出第一个异常
+ */
+public class ListenerGroup {
+
+    private static final Entry[] EMPTY = new Entry[0];
+
+    //监听器数组，修改时整体替换
+    private volatile Entry[] entries = EMPTY;
+    //最后一个监听器移除后关闭，不再接受注册
+    private boolean closed;
+    //只包含监听子节点数据的监听器，用于子节点的数据监听；视图本身为null
+    private final ListenerGroup childData;
+
+    private final Listener listener = new Listener() {
+        @Override
+        public void listen(String path, EventType eventType, byte[] data) throws ZkClientException, SocketException {
+            Exception error = null;
+            for (Entry entry : entries) {
+                if (entry.listener == null) {
+                    continue;
+                }
+                try {
+                    entry.listener.listen(path, eventType, data);
+                } catch (Exception e) {
+                    if (error == null) {
+                        error = e;
+                    }
+                }
+            }
+            rethrow(error);
+        }
+    };
+
+    private final BatchListener batchListener = new BatchListener() {
+        @Override
+        public void listen(String path, List<Node> created, List<Node> deleted, List<Node> changed) throws ZkClientException {
+            Entry[] current = entries;
+            boolean shared = batchCount(current) == 1;
+            Exception error = null;
+            for (Entry entry : current) {
+                if (entry.batchListener == null) {
+                    continue;
+                }
+                try {
+                    // 多个批量监听器时各自得到一份列表
+                    if (shared) {
+                        entry.batchListener.listen(path, created, deleted, changed);
+                    } else {
+                        entry.batchListener.listen(path, new ArrayList<Node>(created), new ArrayList<Node>(deleted), new ArrayList<Node>(changed));
+                    }
+                } catch (Exception e) {
+                    if (error == null) {
+                        error = e;
+                    }
+                }
+            }
+            if (error != null) {
+                throw error instanceof ZkClientException ? (ZkClientException) error : new ZkClientException("Batch listener error.", error);
+            }
+        }
+    };
+
+    public ListenerGroup() {
+        this.childData = new ListenerGroup(null);
+    }
+
+    private ListenerGroup(ListenerGroup childData) {
+        this.childData = childData;
+    }
+
+    /**
+     * 添加监听器
+     *
+     * @param listener      监听器，与batchListener二选一
+     * @param batchListener 批量监听器
+     * @param childData     是否监听子节点数据
+     * @return 注册项，用于移除；监听器组已关闭时返回null
+     */
+    public synchronized Entry add(Listener listener, BatchListener batchListener, boolean childData) {
+        if (closed) {
+            return null;
+        }
+        Entry entry = new Entry(listener, batchListener, childData);
+        this.entries = append(entries, entry);
+        if (childData && this.childData != null) {
+            this.childData.entries = append(this.childData.entries, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * 移除监听器，移除最后一个监听器时关闭监听器组
+     *
+     * @param entry 注册项
+     * @return 监听器组因此变为空时返回true
+     */
+    public synchronized boolean remove(Entry entry) {
+        if (closed) {
+            return false;
+        }
+        Entry[] current = entries;
+        Entry[] next = without(current, entry);
+        if (next == current) {
+            return false;
+        }
+        this.entries = next;
+        if (this.childData != null) {
+            this.childData.entries = without(this.childData.entries, entry);
+        }
+        if (next.length == 0) {
+            closed = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 关闭监听器组，移除所有监听器
+     */
+    public synchronized void close() {
+        if (childData == null) {
+            // 视图随所属的监听器组关闭
+            return;
+        }
+        closed = true;
+        this.entries = EMPTY;
+        if (this.childData != null) {
+            this.childData.entries = EMPTY;
+        }
+    }
+
+    /**
+     * @return 回调所有普通监听器的监听器，没有普通监听器时返回null
+     */
+    public Listener getListener() {
+        for (Entry entry : entries) {
+            if (entry.listener != null) {
+                return listener;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return 回调所有批量监听器的监听器，没有批量监听器时返回null
+     */
+    public BatchListener getBatchListener() {
+        return batchCount(entries) > 0 ? batchListener : null;
+    }
+
+    /**
+     * @return 只包含监听子节点数据的监听器的视图，随本监听器组的注册和移除变化
+     */
+    public ListenerGroup childData() {
+        return childData;
+    }
+
+    public int size() {
+        return entries.length;
+    }
+
+    private static int batchCount(Entry[] entries) {
+        int count = 0;
+        for (Entry entry : entries) {
+            if (entry.batchListener != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static Entry[] append(Entry[] entries, Entry entry) {
+        Entry[] next = new Entry[entries.length + 1];
+        System.arraycopy(entries, 0, next, 0, entries.length);
+        next[entries.length] = entry;
+        return next;
+    }
+
+    private static Entry[] without(Entry[] entries, Entry entry) {
+        for (int i = 0; i < entries.length; i++) {
+            if (entries[i] == entry) {
+                Entry[] next = new Entry[entries.length - 1];
+                System.arraycopy(entries, 0, next, 0, i);
+                System.arraycopy(entries, i + 1, next, i, entries.length - i - 1);
+                return next;
+            }
+        }
+        return entries;
+    }
+
+    private static void rethrow(Exception error) throws ZkClientException, SocketException {
+        if (error == null) {
+            return;
+        }
+        if (error instanceof ZkClientException) {
+            throw (ZkClientException) error;
+        }
+        if (error instanceof SocketException) {
+            throw (SocketException) error;
+        }
+        throw new ZkClientException("Listener error.", error);
+    }
+
+    /**
+     * 监听器注册项
+     */
+    public static final class Entry {
+        private final Listener listener;
+        private final BatchListener batchListener;
+        private final boolean childData;
+
+        private Entry(Listener listener, BatchListener batchListener, boolean childData) {
+            this.listener = listener;
+            this.batchListener = batchListener;
+            this.childData = childData;
+        }
+
+        public Listener getListener() {
+            return listener;
+        }
+
+        public BatchListener getBatchListener() {
+            return batchListener;
+        }
+
+        public boolean isChildData() {
+            return childData;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.danyy.zk.listener;
+
+import com.danyy.zk.ZkClientException;
+
+/**
+ * 监听器注册句柄
+ * 只取消本次注册的监听器，同一节点的其它监听器不受影响；最后一个监听器取消时移除节点的监听
+ */
+public interface ListenerHandle {
+    /**
+     * 取消监听，重复调用无效果
+     *
+     * @throws ZkClientException
+     */
+    void unlisten() throws ZkClientException;
+}
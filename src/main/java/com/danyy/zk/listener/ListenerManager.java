@@ -1,9 +1,9 @@
 package com.danyy.zk.listener;
 
 import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.data.Stat;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * 监听器管理类
@@ -12,7 +12,18 @@ public class ListenerManager {
 
     //监听器
     private Listener listener;
-    private Map<String, Boolean> childNode = new ConcurrentHashMap<String, Boolean>(32);
+    //同一节点上注册的所有监听器，不为null时代替listener和batchListener
+    private ListenerGroup listeners;
+    //批量监听器，不为null时子节点变化按批回调
+    private BatchListener batchListener;
+    //上次读取的子节点，按名称排序
+    private String[] children = new String[0];
+    //上次读取子节点时父节点的状态
+    private Stat childStat;
+    //上次读取数据时节点的状态，null表示节点不存在
+    private Stat dataStat;
+    //最近一次子节点刷新的回调，完成后才开始回调下一次刷新
+    private CompletableFuture<Void> refresh;
     //节点数据
     private byte[] data;
     //事件类型
@@ -21,6 +32,8 @@ public class ListenerManager {
     private boolean childDataChange;
     //是否监听孩子节点的变化
     private boolean childChange;
+    //事件合并窗口（毫秒），大于0时收到事件后等待该时间再读取节点，窗口内的变化只回调一次
+    private long coalesceWindow;
 
 
 
@@ -34,20 +47,118 @@ public class ListenerManager {
         this.childChange = childChange;
     }
 
+    public ListenerManager(ListenerGroup listeners, boolean childDataChange, boolean childChange) {
+        this.listeners = listeners;
+        this.childDataChange = childDataChange;
+        this.childChange = childChange;
+    }
+
+    public ListenerManager(BatchListener batchListener, boolean childDataChange, boolean childChange) {
+        this.batchListener = batchListener;
+        this.childDataChange = childDataChange;
+        this.childChange = childChange;
+    }
+
+    /**
+     * 判断父节点的子节点是否与上次读取时相同
+     * 同一个节点（czxid相同）的cversion和pzxid未增加时子节点没有变化；
+     * cversion小于上次说明是比上次更早的读取结果
+     *
+     * @param stat 本次读取子节点时的父节点状态
+     * @return 无需比较子节点时返回true
+     */
+    public boolean isChildUnchanged(Stat stat) {
+        Stat last = childStat;
+        if (last == null || last.getCzxid() != stat.getCzxid()) {
+            return false;
+        }
+        if (last.getCversion() == stat.getCversion()) {
+            return last.getPzxid() == stat.getPzxid() && last.getNumChildren() == stat.getNumChildren();
+        }
+        return stat.getCversion() < last.getCversion();
+    }
+
+    /**
+     * 与上次读取的节点状态比较，更新为本次状态，得到需要回调的事件
+     * czxid不同说明节点被删除后重建；mzxid未增加说明数据未变化或是更早的读取结果
+     *
+     * @param stat 本次读取的节点状态，节点不存在时为null
+     * @return 节点新建（含重建）返回NodeCreated，删除返回NodeDeleted，数据变化返回NodeDataChanged，没有变化返回null
+     */
+    public EventType dataDelta(Stat stat) {
+        Stat last = dataStat;
+        if (stat == null) {
+            dataStat = null;
+            return last == null ? null : EventType.NodeDeleted;
+        }
+        if (last == null) {
+            dataStat = stat;
+            return EventType.NodeCreated;
+        }
+        if (last.getCzxid() != stat.getCzxid()) {
+            if (stat.getCzxid() < last.getCzxid()) {
+                return null;
+            }
+            dataStat = stat;
+            return EventType.NodeCreated;
+        }
+        if (stat.getMzxid() <= last.getMzxid()) {
+            return null;
+        }
+        dataStat = stat;
+        return EventType.NodeDataChanged;
+    }
+
+    public CompletableFuture<Void> getRefresh() {
+        return refresh;
+    }
+
+    public void setRefresh(CompletableFuture<Void> refresh) {
+        this.refresh = refresh;
+    }
+
+    public Stat getChildStat() {
+        return childStat;
+    }
+
+    public void setChildStat(Stat childStat) {
+        this.childStat = childStat;
+    }
+
+    public Stat getDataStat() {
+        return dataStat;
+    }
+
+    public void setDataStat(Stat dataStat) {
+        this.dataStat = dataStat;
+    }
+
+    public ListenerGroup getListeners() {
+        return listeners;
+    }
+
     public Listener getListener() {
-        return listener;
+        return listeners != null ? listeners.getListener() : listener;
     }
 
     public void setListener(Listener listener) {
         this.listener = listener;
     }
 
-    public Map<String, Boolean> getChildNode() {
-        return childNode;
+    public BatchListener getBatchListener() {
+        return listeners != null ? listeners.getBatchListener() : batchListener;
     }
 
-    public void setChildNode(Map<String, Boolean> childNode) {
-        this.childNode = childNode;
+    public void setBatchListener(BatchListener batchListener) {
+        this.batchListener = batchListener;
+    }
+
+    public String[] getChildren() {
+        return children;
+    }
+
+    public void setChildren(String[] children) {
+        this.children = children;
     }
 
     public byte[] getData() {
@@ -81,4 +192,12 @@ public class ListenerManager {
     public void setChildChange(boolean childChange) {
         this.childChange = childChange;
     }
+
+    public long getCoalesceWindow() {
+        return coalesceWindow;
+    }
+
+    public void setCoalesceWindow(long coalesceWindow) {
+        this.coalesceWindow = coalesceWindow;
+    }
 }
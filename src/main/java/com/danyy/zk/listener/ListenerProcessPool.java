@@ -1,27 +1,84 @@
 package com.danyy.zk.listener;
 
+import com.danyy.zk.metrics.DispatchStats;
 import com.danyy.zk.watcher.ZkWatcher;
+import org.apache.zookeeper.Watcher.Event.EventType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
 
 /**
  * 监听器回调处理线程池
+ * ORDERED模式下每个分片是一个单线程的线程池，按key的hash选择分片，
+ * 同一key的回调按提交顺序执行；
+ * 队列满时按OverflowPolicy处理；
+ * 批量回调在开始执行前，同一父节点的后续变化追加到排队中的回调
  */
 public class ListenerProcessPool {
 
     private final static Logger LOGGER = LoggerFactory.getLogger(ZkWatcher.class);
+    public static final int DEFAULT_QUEUE_CAPACITY = 100;
+    //BLOCK策略等待队列空位的最长时间（毫秒），避免回调等待事件线程完成的结果时永久阻塞
+    public static final long BLOCK_TIMEOUT = 1000;
     private volatile ThreadPoolExecutor processPool;
+    //ORDERED模式的分片，UNORDERED模式为null
+    private ThreadPoolExecutor[] lanes;
+    private final OverflowPolicy overflowPolicy;
+    private final DispatchStats stats;
+    //排队中、尚未开始执行的批量回调，key为父节点路径
+    private final Map<String, BatchTask> batches = new ConcurrentHashMap<String, BatchTask>();
 
     public ListenerProcessPool() {
         this(2);
     }
 
     public ListenerProcessPool(int listenerPoolSize) {
-        processPool = new ThreadPoolExecutor(1, listenerPoolSize, 30000, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(100), new ThreadProcessFactory());
+        this(listenerPoolSize, DispatchMode.UNORDERED);
+    }
+
+    /**
+     * @param listenerPoolSize 回调线程数，ORDERED模式下为分片数
+     * @param mode             分发方式
+     */
+    public ListenerProcessPool(int listenerPoolSize, DispatchMode mode) {
+        this(listenerPoolSize, mode, DEFAULT_QUEUE_CAPACITY, OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * @param listenerPoolSize 回调线程数，ORDERED模式下为分片数
+     * @param mode             分发方式
+     * @param queueCapacity    回调队列容量，ORDERED模式下为每个分片的容量
+     * @param overflowPolicy   队列满时的处理策略
+     */
+    public ListenerProcessPool(int listenerPoolSize, DispatchMode mode, int queueCapacity, OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+        this.stats = new DispatchStats(new IntSupplier() {
+            @Override
+            public int getAsInt() {
+                return queueDepth();
+            }
+        });
+        ThreadProcessFactory factory = new ThreadProcessFactory();
+        OverflowHandler handler = new OverflowHandler();
+        if (mode == DispatchMode.ORDERED) {
+            lanes = new ThreadPoolExecutor[Math.max(listenerPoolSize, 1)];
+            for (int i = 0; i < lanes.length; i++) {
+                lanes[i] = new ThreadPoolExecutor(1, 1, 30000, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueCapacity), factory, handler);
+                lanes[i].allowCoreThreadTimeOut(true);
+            }
+        } else {
+            processPool = new ThreadPoolExecutor(1, listenerPoolSize, 30000, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueCapacity), factory, handler);
+        }
     }
 
     /**
@@ -30,20 +87,268 @@ public class ListenerProcessPool {
      * @param path    监听的节点
      * @param manager 回调信息
      */
-    public void invoker(final String path, final ListenerManager manager) {
-        if (manager != null) {
-            processPool.submit(new Runnable() {
-                public void run() {
-                    Listener listener = manager.getListener();
-                    if (listener != null) {
-                        try {
-                            listener.listen(path, manager.getEventType(), manager.getData());
-                        } catch (Exception e) {
-                            LOGGER.error("Invoker listener callback error.", e);
+    public void invoker(String path, ListenerManager manager) {
+        this.invoker(path, path, manager);
+    }
+
+    /**
+     * 执行监听回调函数
+     *
+     * @param key     顺序key，ORDERED模式下相同key的回调按调用顺序执行
+     * @param path    监听的节点
+     * @param manager 回调信息
+     */
+    public void invoker(String key, String path, ListenerManager manager) {
+        if (manager != null && manager.getListener() != null) {
+            this.executor(key).execute(new ListenerTask(path, manager.getListener(), manager.getEventType(), manager.getData()));
+        }
+    }
+
+    /**
+     * 执行批量监听回调
+     *
+     * @param key      顺序key
+     * @param path     父节点路径
+     * @param listener 批量监听器
+     * @param created  新增的子节点
+     * @param deleted  删除的子节点
+     * @param changed  数据变化的子节点
+     */
+    public void invoker(String key, String path, BatchListener listener, List<Node> created, List<Node> deleted, List<Node> changed) {
+        if (listener == null) {
+            return;
+        }
+        BatchTask task;
+        synchronized (batches) {
+            task = batches.get(path);
+            if (task != null && task.listener == listener && task.append(created, deleted, changed)) {
+                return;
+            }
+            task = new BatchTask(path, listener);
+            task.append(created, deleted, changed);
+            batches.put(path, task);
+        }
+        this.executor(key).execute(task);
+    }
+
+    /**
+     * @return 回调队列统计
+     */
+    public DispatchStats getStats() {
+        return stats;
+    }
+
+    /**
+     * @return 等待执行的回调数
+     */
+    public int queueDepth() {
+        if (lanes == null) {
+            return processPool.getQueue().size();
+        }
+        int depth = 0;
+        for (ThreadPoolExecutor lane : lanes) {
+            depth += lane.getQueue().size();
+        }
+        return depth;
+    }
+
+    private ThreadPoolExecutor executor(String key) {
+        if (lanes == null) {
+            return processPool;
+        }
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return lanes[(hash & 0x7fffffff) % lanes.length];
+    }
+
+    /**
+     * 一次监听回调
+     */
+    private final class ListenerTask implements Runnable {
+        private final String path;
+        private final Listener listener;
+        private final EventType eventType;
+        private final long enqueueTime = System.nanoTime();
+        private byte[] data;
+        private boolean started;
+
+        ListenerTask(String path, Listener listener, EventType eventType, byte[] data) {
+            this.path = path;
+            this.listener = listener;
+            this.eventType = eventType;
+            this.data = data;
+        }
+
+        @Override
+        public void run() {
+            byte[] current;
+            synchronized (this) {
+                started = true;
+                current = data;
+            }
+            stats.recordDelay(System.nanoTime() - enqueueTime);
+            try {
+                listener.listen(path, eventType, current);
+            } catch (Exception e) {
+                LOGGER.error("Invoker listener callback error.", e);
+            }
+        }
+
+        /**
+         * 用新的数据变化回调替换本回调的数据
+         *
+         * @return 本回调已开始执行或不能合并时返回false
+         */
+        boolean merge(ListenerTask task) {
+            if (eventType != EventType.NodeDataChanged || task.eventType != EventType.NodeDataChanged
+                    || listener != task.listener || !path.equals(task.path)) {
+                return false;
+            }
+            synchronized (this) {
+                if (started) {
+                    return false;
+                }
+                data = task.data;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 一次批量回调
+     */
+    private final class BatchTask implements Runnable {
+        private final String path;
+        private final BatchListener listener;
+        private final long enqueueTime = System.nanoTime();
+        //按路径合并后的变化，保持追加顺序
+        private final Map<String, Node> created = new LinkedHashMap<String, Node>();
+        private final Map<String, Node> deleted = new LinkedHashMap<String, Node>();
+        private final Map<String, Node> changed = new LinkedHashMap<String, Node>();
+        private boolean started;
+
+        BatchTask(String path, BatchListener listener) {
+            this.path = path;
+            this.listener = listener;
+        }
+
+        /**
+         * 追加变化，同一节点的变化按先后顺序合并：
+         * 创建后删除相互抵消，删除后创建视为数据变化，创建后变化仍为创建（使用最新数据），
+         * 删除时丢弃该节点之前的数据变化，同一节点的多次数据变化只保留最新的一次
+         *
+         * @return 本回调已开始执行时返回false
+         */
+        synchronized boolean append(List<Node> created, List<Node> deleted, List<Node> changed) {
+            if (started) {
+                return false;
+            }
+            for (Node node : deleted) {
+                String path = node.getPath();
+                this.changed.remove(path);
+                if (this.created.remove(path) == null) {
+                    this.deleted.put(path, node);
+                }
+            }
+            for (Node node : created) {
+                String path = node.getPath();
+                if (this.deleted.remove(path) != null) {
+                    this.changed.put(path, node);
+                } else {
+                    this.created.put(path, node);
+                }
+            }
+            for (Node node : changed) {
+                String path = node.getPath();
+                if (this.created.containsKey(path)) {
+                    this.created.put(path, node);
+                } else {
+                    this.changed.remove(path);
+                    this.changed.put(path, node);
+                }
+            }
+            return true;
+        }
+
+        /**
+         * 标记为已开始，后续变化不再追加到本回调
+         */
+        void discard() {
+            synchronized (batches) {
+                synchronized (this) {
+                    started = true;
+                }
+                batches.remove(path, this);
+            }
+        }
+
+        @Override
+        public void run() {
+            this.discard();
+            stats.recordDelay(System.nanoTime() - enqueueTime);
+            try {
+                listener.listen(path, new ArrayList<Node>(created.values()), new ArrayList<Node>(deleted.values()),
+                        new ArrayList<Node>(changed.values()));
+            } catch (Exception e) {
+                LOGGER.error("Invoker batch listener callback error.", e);
+            }
+        }
+    }
+
+    /**
+     * 队列满时的处理
+     */
+    private final class OverflowHandler implements RejectedExecutionHandler {
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                return;
+            }
+            stats.recordRejected();
+            switch (overflowPolicy) {
+                case CALLER_RUNS:
+                    stats.recordCallerRuns();
+                    r.run();
+                    return;
+                case DROP_OLDEST:
+                    Runnable dropped = executor.getQueue().poll();
+                    if (dropped != null) {
+                        stats.recordDropped();
+                        if (dropped instanceof BatchTask) {
+                            ((BatchTask) dropped).discard();
                         }
                     }
+                    executor.execute(r);
+                    return;
+                case COALESCE:
+                    for (Runnable queued : executor.getQueue()) {
+                        if (queued instanceof ListenerTask && r instanceof ListenerTask && ((ListenerTask) queued).merge((ListenerTask) r)) {
+                            stats.recordCoalesced();
+                            return;
+                        }
+                    }
+                    this.block(r, executor);
+                    return;
+                default:
+                    this.block(r, executor);
+            }
+        }
+
+        private void block(Runnable r, ThreadPoolExecutor executor) {
+            try {
+                if (executor.getQueue().offer(r, BLOCK_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    return;
                 }
-            });
+                LOGGER.warn("Listener queue full for {}ms, event dropped.", BLOCK_TIMEOUT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOGGER.warn("Interrupted while waiting for listener queue, event dropped.");
+            }
+            stats.recordDropped();
+            if (r instanceof BatchTask) {
+                ((BatchTask) r).discard();
+            }
         }
     }
 }
@@ -4,6 +4,14 @@ public class Node {
     private String path;
     private byte[] data;
 
+    public Node() {
+    }
+
+    public Node(String path, byte[] data) {
+        this.path = path;
+        this.data = data;
+    }
+
     public String getPath() {
         return path;
     }
@@ -19,4 +27,9 @@ public class Node {
     public void setData(byte[] data) {
         this.data = data;
     }
+
+    @Override
+    public String toString() {
+        return path;
+    }
 }
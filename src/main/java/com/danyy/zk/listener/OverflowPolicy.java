@@ -0,0 +1,28 @@
+package com.danyy.zk.listener;
+
+/**
+ * 监听器回调队列满时的处理策略
+ */
+public enum OverflowPolicy {
+    /**
+     * 阻塞提交事件的线程（通常是zookeeper事件线程）等待队列空位，最多等待ListenerProcessPool.BLOCK_TIMEOUT毫秒，
+     * 超时后丢弃该回调并计入dropped；
+     * 等待期间事件线程不处理任何响应和watch，回调中等待异步操作结果（如*Async().get()、创建多级节点、信号量）的线程
+     * 在超时前都无法继续，队列经常满时应增大队列容量或选择其它策略
+     */
+    BLOCK,
+    /**
+     * 队列中有同一节点同一监听器未执行的数据变化回调时，用最新数据替换其数据；
+     * 没有可合并的回调时按BLOCK处理；
+     * 被合并的中间数据不会回调，ORDERED模式下同一路径不再逐个按发生顺序回调
+     */
+    COALESCE,
+    /**
+     * 丢弃队列中最早的回调，ORDERED模式下被丢弃的回调不会执行，同一路径的回调会出现缺失
+     */
+    DROP_OLDEST,
+    /**
+     * 在提交事件的线程中直接执行回调，ORDERED模式下该回调可能先于队列中同一路径的回调执行
+     */
+    CALLER_RUNS
+}
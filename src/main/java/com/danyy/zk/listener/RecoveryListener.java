@@ -0,0 +1,15 @@
+package com.danyy.zk.listener;
+
+/**
+ * 会话超时重连后恢复完成的监听类
+ * 恢复包括重新注册数据监听、子节点监听和重建顽固节点
+ */
+public interface RecoveryListener {
+    /**
+     * @param durationMillis 从开始恢复到全部完成的耗时
+     * @param watches        重新注册的数据监听和子节点监听数
+     * @param stubbornNodes  重建的顽固节点数
+     * @param failures       失败的请求数
+     */
+    void recovered(long durationMillis, int watches, int stubbornNodes, int failures);
+}
@@ -0,0 +1,200 @@
+package com.danyy.zk.lock;
+
+import com.danyy.zk.ZkClient;
+import com.danyy.zk.ZkClientException;
+import org.apache.zookeeper.ZooKeeper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 进程内分组的锁，该对象线程安全支持多线程调用，锁可重入
+ * 同一进程的线程先在本地锁上排队，只有拿到本地锁且本地没有持有zookeeper节点的线程才创建顺序节点排队；
+ * 释放锁时如果本地还有等待的线程，不删除节点，直接交给本地的下一个线程，
+ * 连续交接maxHandoffs次后删除节点，让其它进程有机会获得锁；
+ * 节点所属的会话失效后不再交接，下一个本地线程重新创建节点排队
+ * 同一路径在一个进程内只能使用一个该对象，通过ZkClient.getLock()获取；
+ * 与同一客户端getSequenceLock()返回的锁按路径共用重入状态，持有其中一个时加另一个直接重入
+ */
+public class CohortLock extends SequenceLock {
+    private final static Logger LOGGER = LoggerFactory.getLogger(CohortLock.class);
+
+    private final ZkClient client;
+    // 本地排队
+    private final ReentrantLock local = new ReentrantLock();
+    // 等待本地锁的线程数
+    private final AtomicInteger waiting = new AtomicInteger();
+    // 连续交给本地线程的最大次数
+    private final int maxHandoffs;
+    // 本进程持有的锁节点，只在持有本地锁时访问
+    private String node;
+    // 当前节点已连续交接的次数
+    private int handoffs;
+    // 创建节点时的会话
+    private long nodeSession;
+
+    /**
+     * @param client      客户端
+     * @param lockPath    锁的目录
+     * @param maxHandoffs 连续交给本地线程的最大次数
+     */
+    public CohortLock(ZkClient client, String lockPath, int maxHandoffs) {
+        this(client, lockPath, maxHandoffs, new ThreadLocal<Map<String, ReentrantState>>(), null);
+    }
+
+    CohortLock(ZkClient client, String lockPath, int maxHandoffs, ThreadLocal<Map<String, ReentrantState>> currentLock,
+               LockRegistry registry) {
+        super(client, lockPath, currentLock, registry);
+        this.client = client;
+        this.maxHandoffs = maxHandoffs;
+    }
+
+    /**
+     * 获得锁，该锁可重入
+     *
+     * @param timeout 0 或者 大于0的 毫秒数，当设置为0时，程序将一直等待，直到获取到锁，
+     *                当设置大于0时，本地排队和zookeeper排队的总时间不超过timeout
+     * @return 是否获取到锁，超时或线程被中断时返回false
+     */
+    @Override
+    public boolean lock(long timeout) {
+        Map<String, ReentrantState> held = this.held();
+        ReentrantState state = held.get(this.getLockPath());
+        if (state != null) {
+            // 重入锁
+            state.add();
+            return true;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        this.enter();
+        boolean locked = false;
+        try {
+            if (!this.lockLocal(timeout)) {
+                return false;
+            }
+            try {
+                if (node != null && !this.sessionAlive()) {
+                    // 会话过期后临时节点已被服务端删除，不能继续交接
+                    LOGGER.warn("Lock session expired, acquire again. {}", node);
+                    String lost = node;
+                    node = null;
+                    this.deleteQuietly(lost);
+                }
+                if (node == null) {
+                    long remaining = 0;
+                    if (timeout > 0) {
+                        remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                        if (remaining <= 0) {
+                            return false;
+                        }
+                    }
+                    nodeSession = this.sessionId();
+                    node = this.acquire(remaining);
+                    handoffs = 0;
+                    if (node == null) {
+                        return false;
+                    }
+                }
+                locked = true;
+                held.put(this.getLockPath(), new ReentrantState(node, this));
+                return true;
+            } finally {
+                if (!locked) {
+                    local.unlock();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            if (!locked) {
+                this.exit();
+                this.releaseIdle();
+            }
+        }
+    }
+
+    private boolean lockLocal(long timeout) throws InterruptedException {
+        waiting.incrementAndGet();
+        try {
+            if (timeout > 0) {
+                return local.tryLock(timeout, TimeUnit.MILLISECONDS);
+            }
+            local.lockInterruptibly();
+            return true;
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    /**
+     * 释放锁，本地有等待的线程且未超过交接次数时保留节点
+     */
+    @Override
+    void unlock(ReentrantState state) {
+        try {
+            boolean alive = this.sessionAlive();
+            if (waiting.get() > 0 && handoffs < maxHandoffs && alive) {
+                handoffs++;
+            } else {
+                String held = node;
+                node = null;
+                if (alive) {
+                    this.release(held);
+                } else {
+                    this.deleteQuietly(held);
+                }
+            }
+        } finally {
+            this.exit();
+            local.unlock();
+        }
+        this.releaseIdle();
+    }
+
+    /**
+     * 保留节点后等待的线程全部超时放弃时，删除没有线程使用的节点
+     * 释放锁的线程和放弃等待的线程都在修改状态后检查一次，保证节点不会遗留
+     */
+    private void releaseIdle() {
+        if (waiting.get() > 0 || !local.tryLock()) {
+            return;
+        }
+        try {
+            if (node != null && waiting.get() == 0) {
+                String held = node;
+                node = null;
+                if (this.sessionAlive()) {
+                    this.release(held);
+                } else {
+                    this.deleteQuietly(held);
+                }
+            }
+        } catch (ZkClientException e) {
+            LOGGER.warn("Release idle lock node fail. {}", this.getLockPath(), e);
+        } finally {
+            local.unlock();
+        }
+    }
+
+    private long sessionId() {
+        ZooKeeper zookeeper = client.getZookeeper();
+        return zookeeper == null ? 0 : zookeeper.getSessionId();
+    }
+
+    /**
+     * @return 持有节点的会话是否仍然有效，会话过期后客户端会换成新会话或进入CLOSED状态
+     */
+    private boolean sessionAlive() {
+        ZooKeeper zookeeper = client.getZookeeper();
+        return zookeeper != null && zookeeper.getSessionId() == nodeSession && zookeeper.getState().isAlive();
+    }
+
+    public int getMaxHandoffs() {
+        return maxHandoffs;
+    }
+}
@@ -0,0 +1,434 @@
+package com.danyy.zk.lock;
+
+import com.danyy.zk.ZkClient;
+import com.danyy.zk.ZkClientException;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+/**
+ * 进程间的计数信号量，最多同时发放maxLeases个许可，该对象线程安全支持多线程调用
+ * 每次申请在目录下创建一个临时顺序节点，节点名称带有申请的许可数；按顺序号排队，
+ * 从头开始累计的许可数不超过maxLeases的节点获得许可，排在前面的申请未满足时后面的申请不会插队
+ * 每个对象在目录上保持一个子节点watch，在本地维护所有申请，子节点变化时只读取一次，
+ * 只唤醒本进程中刚获得许可的线程，其它等待的线程不会被唤醒，也不各自读取目录
+ * 本地记录显示许可已满时tryAcquire()直接返回，不发送请求；有空闲许可时创建节点的同时读取子节点，只需一次往返
+ * 等待期间会话超时时抛出LockSessionException；持有期间会话超时许可随临时节点一起失效
+ */
+public class DistributedSemaphore {
+    private final static Logger LOGGER = LoggerFactory.getLogger(DistributedSemaphore.class);
+
+    // 许可节点名称前缀，后接许可数
+    static final String PREFIX = "lease-";
+    // watch失效（如连接断开时读取失败）后，等待的线程重新读取的间隔
+    private static final long RECHECK_INTERVAL = 1000;
+
+    private final ZkClient client;
+    // 信号量的目录
+    private final String path;
+    // 许可总数
+    private final int maxLeases;
+    // 按顺序号排序的所有申请，未读取过时为null
+    private volatile List<String> leases;
+    // 目录上的watch是否有效，有效时leases是最新的
+    private volatile boolean watching;
+    private volatile boolean closed;
+    // 本进程中等待许可的线程，key为节点名称
+    private final Map<String, Waiter> waiters = new ConcurrentHashMap<String, Waiter>();
+
+    private final Watcher watcher = new Watcher() {
+        @Override
+        public void process(WatchedEvent event) {
+            if (event.getState() == Event.KeeperState.Expired) {
+                expire();
+            } else if (event.getType() != Event.EventType.None) {
+                watching = false;
+                if (!closed) {
+                    list();
+                }
+            }
+        }
+    };
+
+    /**
+     * @param client    客户端
+     * @param path      信号量的目录，不存在时在第一次申请时创建
+     * @param maxLeases 许可总数
+     */
+    public DistributedSemaphore(ZkClient client, String path, int maxLeases) {
+        if (maxLeases < 1) {
+            throw new ZkClientException("maxLeases must be greater than 0. " + maxLeases);
+        }
+        this.client = client;
+        this.path = SequenceLock.normalize(path);
+        this.maxLeases = maxLeases;
+    }
+
+    /**
+     * 申请一个许可，一直等待
+     *
+     * @return 许可，线程被中断时返回null
+     */
+    public Lease acquire() {
+        return this.acquire(1, 0);
+    }
+
+    /**
+     * 申请许可
+     *
+     * @param permits 许可数，不能超过maxLeases
+     * @param timeout 0 或者 大于0的 毫秒数，当设置为0时，程序将一直等待，直到获取到许可，
+     *                当设置大于0时，等待获得许可的最长时间为timeout的值
+     * @return 许可，超时或线程被中断时返回null
+     */
+    public Lease acquire(int permits, long timeout) {
+        this.checkPermits(permits);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        String node = this.create(permits);
+        String name = node.substring(node.lastIndexOf('/') + 1);
+        Waiter waiter = this.register(name);
+        if (waiter == null) {
+            return new Lease(node, permits);
+        }
+        boolean acquired = false;
+        try {
+            while (true) {
+                long wait = RECHECK_INTERVAL;
+                if (timeout > 0) {
+                    long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (remaining <= 0) {
+                        return null;
+                    }
+                    wait = Math.min(wait, remaining);
+                }
+                if (waiter.latch.await(wait, TimeUnit.MILLISECONDS)) {
+                    break;
+                }
+                if (!watching && !closed) {
+                    this.list();
+                }
+            }
+            if (waiter.expired) {
+                throw new LockSessionException("Acquire lease fail,zookeeper session timeout. " + node);
+            }
+            acquired = true;
+            return new Lease(node, permits);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            if (!acquired) {
+                waiters.remove(name);
+                this.deleteQuietly(node);
+            }
+        }
+    }
+
+    /**
+     * 尝试申请许可，不等待
+     * 本地记录显示许可不足时直接返回，不发送请求
+     *
+     * @param permits 许可数，不能超过maxLeases
+     * @return 许可，许可不足时返回null
+     */
+    public Lease tryAcquire(int permits) {
+        this.checkPermits(permits);
+        List<String> current = this.leases;
+        if (watching && current != null && this.used(current) + permits > maxLeases) {
+            return null;
+        }
+        String node = this.create(permits);
+        String name = node.substring(node.lastIndexOf('/') + 1);
+        if (this.granted(this.leases).contains(name)) {
+            return new Lease(node, permits);
+        }
+        this.deleteQuietly(node);
+        return null;
+    }
+
+    /**
+     * 尝试申请一个许可，不等待
+     *
+     * @return 许可，许可不足时返回null
+     */
+    public Lease tryAcquire() {
+        return this.tryAcquire(1);
+    }
+
+    /**
+     * 获取剩余的许可数，本地记录有效时不发送请求
+     *
+     * @return 剩余的许可数
+     */
+    public int getAvailablePermits() {
+        List<String> current = this.leases;
+        if (!watching || current == null) {
+            current = this.await(this.list());
+        }
+        return Math.max(maxLeases - this.used(current), 0);
+    }
+
+    private void checkPermits(int permits) {
+        if (permits < 1 || permits > maxLeases) {
+            throw new ZkClientException("Permits must be between 1 and " + maxLeases + ". " + permits);
+        }
+    }
+
+    /**
+     * 创建申请节点，紧接着在同一会话中读取子节点，两个请求一起发送，只需一次往返
+     *
+     * @param permits 许可数
+     * @return 创建的节点路径
+     */
+    private String create(int permits) {
+        String prefix = this.path + "/" + PREFIX + permits + "-";
+        CompletableFuture<String> created = client.createAsync(prefix, null, CreateMode.EPHEMERAL_SEQUENTIAL);
+        CompletableFuture<List<String>> listed = this.list();
+        String node;
+        try {
+            node = this.await(created);
+        } catch (ZkClientException e) {
+            if (e.getCode() != KeeperException.Code.NONODE) {
+                throw e;
+            }
+            // 目录不存在，创建目录后重新申请
+            node = client.create(prefix, CreateMode.EPHEMERAL_SEQUENTIAL);
+            listed = this.list();
+        }
+        String name = node.substring(node.lastIndexOf('/') + 1);
+        try {
+            List<String> current = this.await(listed);
+            if (!current.contains(name)) {
+                // 读取请求先于创建请求被处理（如首次连接前发起的操作），重新读取
+                this.await(this.list());
+            }
+        } catch (ZkClientException e) {
+            this.deleteQuietly(node);
+            throw e;
+        }
+        return node;
+    }
+
+    /**
+     * 读取子节点并注册watch，更新本地记录，唤醒获得许可的线程
+     *
+     * @return 更新本地记录后完成
+     */
+    private CompletableFuture<List<String>> list() {
+        return client.getChildAsync(this.path, this.watcher).whenComplete(new BiConsumer<List<String>, Throwable>() {
+            @Override
+            public void accept(List<String> children, Throwable throwable) {
+                if (throwable == null) {
+                    update(children);
+                    return;
+                }
+                watching = false;
+                Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+                if (cause instanceof ZkClientException
+                        && ((ZkClientException) cause).getCode() == KeeperException.Code.SESSIONEXPIRED) {
+                    expire();
+                }
+            }
+        });
+    }
+
+    private synchronized void update(List<String> children) {
+        List<String> sorted = SequenceLock.sort(children);
+        this.leases = sorted;
+        this.watching = true;
+        if (waiters.isEmpty()) {
+            return;
+        }
+        Set<String> granted = this.granted(sorted);
+        for (Iterator<Map.Entry<String, Waiter>> it = waiters.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Waiter> entry = it.next();
+            if (granted.contains(entry.getKey())) {
+                it.remove();
+                entry.getValue().latch.countDown();
+            }
+        }
+    }
+
+    /**
+     * 登记等待的线程，已获得许可时不登记
+     *
+     * @param name 节点名称
+     * @return 等待对象，已获得许可时返回null
+     */
+    private synchronized Waiter register(String name) {
+        if (this.granted(this.leases).contains(name)) {
+            return null;
+        }
+        Waiter waiter = new Waiter();
+        waiters.put(name, waiter);
+        return waiter;
+    }
+
+    /**
+     * 会话超时，唤醒所有等待的线程
+     */
+    private synchronized void expire() {
+        this.watching = false;
+        this.leases = null;
+        for (Waiter waiter : waiters.values()) {
+            waiter.expired = true;
+            waiter.latch.countDown();
+        }
+        waiters.clear();
+    }
+
+    /**
+     * 从头开始累计许可数，不超过maxLeases的节点获得许可
+     *
+     * @param sorted 按顺序号排序的节点
+     * @return 获得许可的节点
+     */
+    Set<String> granted(List<String> sorted) {
+        if (sorted == null) {
+            return Collections.emptySet();
+        }
+        Set<String> granted = new HashSet<String>();
+        int used = 0;
+        for (String node : sorted) {
+            used += permits(node);
+            if (used > maxLeases) {
+                break;
+            }
+            granted.add(node);
+        }
+        return granted;
+    }
+
+    /**
+     * 已发放和排队中的许可数
+     */
+    private int used(List<String> sorted) {
+        int used = 0;
+        for (String node : sorted) {
+            used += permits(node);
+        }
+        return used;
+    }
+
+    /**
+     * 从节点名称中解析许可数，lease-3-0000000012
+     */
+    static int permits(String node) {
+        int end = node.lastIndexOf('-');
+        if (!node.startsWith(PREFIX) || end <= PREFIX.length()) {
+            return 1;
+        }
+        try {
+            return Integer.parseInt(node.substring(PREFIX.length(), end));
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+
+    private <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ZkClientException) {
+                throw (ZkClientException) e.getCause();
+            }
+            throw new ZkClientException("Async operation fail.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ZkClientException("Async operation interrupted.", e);
+        }
+    }
+
+    private void deleteQuietly(String node) {
+        try {
+            client.delete(node);
+        } catch (ZkClientException e) {
+            if (e.getCode() != KeeperException.Code.NONODE) {
+                LOGGER.warn("Delete lease node {} fail.", node, e);
+            }
+        }
+    }
+
+    /**
+     * 停止维护本地记录，不影响已发放的许可
+     */
+    public void close() {
+        this.closed = true;
+        this.watching = false;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public int getMaxLeases() {
+        return maxLeases;
+    }
+
+    private static class Waiter {
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile boolean expired;
+    }
+
+    /**
+     * 发放的许可，使用完后调用release()归还
+     */
+    public class Lease implements Closeable {
+        private final String node;
+        private final int permits;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Lease(String node, int permits) {
+            this.node = node;
+            this.permits = permits;
+        }
+
+        /**
+         * 归还许可，重复调用只归还一次
+         */
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                try {
+                    client.delete(node);
+                } catch (ZkClientException e) {
+                    // 会话超时后节点已随会话删除
+                    if (e.getCode() != KeeperException.Code.NONODE) {
+                        throw e;
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            this.release();
+        }
+
+        public String getNode() {
+            return node;
+        }
+
+        public int getPermits() {
+            return permits;
+        }
+    }
+}
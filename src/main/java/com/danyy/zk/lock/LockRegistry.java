@@ -0,0 +1,199 @@
+package com.danyy.zk.lock;
+
+import com.danyy.zk.ZkClient;
+import com.danyy.zk.ZkClientException;
+import org.apache.zookeeper.KeeperException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按路径缓存的锁，每个锁目录一个锁对象，不同路径的锁互不影响
+ * 锁不常驻watch，只在等待时监听前一个节点；没有线程持有或等待、空闲超过idleTimeout的锁被移除，
+ * 移除时删除空的锁目录。缓存的锁超过maxLocks时，不等空闲超时移除所有空闲的锁
+ * cohortHandoffs大于0时创建CohortLock，同一进程的线程在本地排队，共用一个zookeeper节点
+ */
+public class LockRegistry {
+    private final static Logger LOGGER = LoggerFactory.getLogger(LockRegistry.class);
+
+    public static final long DEFAULT_IDLE_TIMEOUT = 60000;
+    public static final int DEFAULT_MAX_LOCKS = 10000;
+
+    private static final ScheduledExecutorService GC_SCHEDULER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "zkClient-lock-gc");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final ZkClient client;
+    private final ConcurrentHashMap<String, SequenceLock> locks = new ConcurrentHashMap<String, SequenceLock>();
+    // 同一注册表的锁共用重入状态
+    private final ThreadLocal<Map<String, ReentrantState>> currentLock = new ThreadLocal<Map<String, ReentrantState>>();
+    // 读写锁的重入状态，读锁和写锁分开记录
+    private final ThreadLocal<Map<String, ReentrantState>> readHeld = new ThreadLocal<Map<String, ReentrantState>>();
+    private final ThreadLocal<Map<String, ReentrantState>> writeHeld = new ThreadLocal<Map<String, ReentrantState>>();
+    private volatile long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    private volatile int maxLocks = DEFAULT_MAX_LOCKS;
+    private volatile int cohortHandoffs;
+    private ScheduledFuture<?> gc;
+    private boolean closed;
+
+    public LockRegistry(ZkClient client) {
+        this.client = client;
+    }
+
+    /**
+     * 获取路径对应的锁，不存在时创建
+     *
+     * @param lockPath 锁的目录
+     * @return 锁对象
+     */
+    public Lock getLock(String lockPath) {
+        String path = SequenceLock.normalize(lockPath);
+        SequenceLock lock = locks.get(path);
+        if (lock == null) {
+            SequenceLock created = cohortHandoffs > 0 ? new CohortLock(client, path, cohortHandoffs, currentLock, this)
+                    : new SequenceLock(client, path, currentLock, this);
+            lock = locks.putIfAbsent(path, created);
+            if (lock == null) {
+                lock = created;
+                this.scheduleGc();
+            }
+        }
+        return lock;
+    }
+
+    /**
+     * 创建不缓存的锁，不会被回收；与注册表中的锁共用重入状态，
+     * 同一线程通过多次调用得到的不同对象加同一路径的锁时可以重入
+     *
+     * @param lockPath 锁的目录
+     * @return 锁对象
+     */
+    public Lock newLock(String lockPath) {
+        return new SequenceLock(client, lockPath, currentLock, null);
+    }
+
+    /**
+     * 创建读写锁，同一注册表创建的读写锁按路径共用重入状态
+     *
+     * @param lockPath 锁的目录
+     * @return 读写锁
+     */
+    public ReadWriteLock newReadWriteLock(String lockPath) {
+        return new ReadWriteLock(client, lockPath, readHeld, writeHeld);
+    }
+
+    /**
+     * 移除空闲的锁，删除空的锁目录
+     */
+    void gc() {
+        long idleNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+        // 超过上限时移除所有空闲的锁
+        if (locks.size() > maxLocks) {
+            idleNanos = 0;
+        }
+        int removed = 0;
+        for (SequenceLock lock : locks.values()) {
+            if (lock.isIdle(idleNanos) && locks.remove(lock.getLockPath(), lock)) {
+                this.deleteDirectory(lock.getLockPath());
+                removed++;
+            }
+        }
+        if (removed > 0) {
+            LOGGER.debug("Remove {} idle locks, {} locks remain.", removed, locks.size());
+        }
+    }
+
+    /**
+     * 从注册表移除锁，锁空闲时删除空的锁目录
+     *
+     * @param lock 锁
+     */
+    void remove(SequenceLock lock) {
+        if (locks.remove(lock.getLockPath(), lock) && lock.isIdle(0)) {
+            this.deleteDirectory(lock.getLockPath());
+        }
+    }
+
+    /**
+     * 删除空的锁目录，目录下还有节点（其它进程正在使用）时保留
+     */
+    private void deleteDirectory(String path) {
+        try {
+            client.delete(path);
+        } catch (ZkClientException e) {
+            KeeperException.Code code = e.getCode();
+            if (code != KeeperException.Code.NOTEMPTY && code != KeeperException.Code.NONODE) {
+                LOGGER.warn("Delete idle lock directory {} fail.", path, e);
+            }
+        }
+    }
+
+    private synchronized void scheduleGc() {
+        if (gc != null || closed) {
+            return;
+        }
+        long period = Math.max(idleTimeout / 2, 1);
+        gc = GC_SCHEDULER.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    gc();
+                } catch (Exception e) {
+                    LOGGER.warn("Lock gc error.", e);
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止回收，客户端关闭时调用
+     */
+    public synchronized void close() {
+        closed = true;
+        if (gc != null) {
+            gc.cancel(false);
+            gc = null;
+        }
+        locks.clear();
+    }
+
+    /**
+     * @param idleTimeout 锁空闲多久后移除（毫秒）
+     */
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * @param maxLocks 缓存的锁超过该数量时立即移除空闲的锁
+     */
+    public void setMaxLocks(int maxLocks) {
+        this.maxLocks = maxLocks;
+    }
+
+    /**
+     * @param cohortHandoffs 大于0时开启进程内分组，锁节点连续交给本地等待线程的最大次数；0不分组
+     */
+    public void setCohortHandoffs(int cohortHandoffs) {
+        this.cohortHandoffs = cohortHandoffs;
+    }
+
+    /**
+     * @return 当前缓存的锁数量
+     */
+    public int size() {
+        return locks.size();
+    }
+}
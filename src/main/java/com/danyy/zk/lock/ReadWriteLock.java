@@ -0,0 +1,106 @@
+package com.danyy.zk.lock;
+
+import com.danyy.zk.ZkClient;
+import com.danyy.zk.ZkClientException;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 进程间的读写锁，读锁共享，写锁独占，两把锁都可重入
+ * 读锁和写锁在同一目录下用不同前缀的顺序节点排队：
+ * 读锁只等待排在前面最近的一个写节点，写锁等待排在前面的一个节点，释放锁只唤醒依赖该节点的等待者
+ * 持有写锁的线程可以再获取读锁，持有读锁的线程不能再获取写锁
+ * 通过ZkClient.getReadWriteLock()获取的对象按路径共用重入状态，同一线程用不同对象加同一路径的锁时也可以重入
+ * 等待期间会话超时时抛出LockSessionException
+ */
+public class ReadWriteLock {
+    // 读锁节点名称前缀
+    static final String READ_PREFIX = "read-";
+    // 写锁节点名称前缀
+    static final String WRITE_PREFIX = "write-";
+
+    private final ReadLock readLock;
+    private final WriteLock writeLock;
+
+    /**
+     * @param client   客户端
+     * @param lockPath 锁的目录，不存在时在第一次加锁时创建
+     */
+    public ReadWriteLock(ZkClient client, String lockPath) {
+        this(client, lockPath, new ThreadLocal<Map<String, ReentrantState>>(), new ThreadLocal<Map<String, ReentrantState>>());
+    }
+
+    ReadWriteLock(ZkClient client, String lockPath, ThreadLocal<Map<String, ReentrantState>> readHeld,
+                  ThreadLocal<Map<String, ReentrantState>> writeHeld) {
+        this.writeLock = new WriteLock(client, lockPath, writeHeld);
+        this.readLock = new ReadLock(client, lockPath, readHeld);
+    }
+
+    /**
+     * @return 读锁
+     */
+    public Lock readLock() {
+        return readLock;
+    }
+
+    /**
+     * @return 写锁
+     */
+    public Lock writeLock() {
+        return writeLock;
+    }
+
+    public String getLockPath() {
+        return writeLock.getLockPath();
+    }
+
+    private class ReadLock extends SequenceLock {
+
+        ReadLock(ZkClient client, String lockPath, ThreadLocal<Map<String, ReentrantState>> held) {
+            super(client, lockPath, READ_PREFIX, held, null);
+        }
+
+        /**
+         * 只等待排在前面最近的一个写节点，该写节点由当前线程持有时不需要等待
+         */
+        @Override
+        String blocker(List<String> nodes, int index) {
+            for (int i = index - 1; i >= 0; i--) {
+                String node = nodes.get(i);
+                if (node.startsWith(WRITE_PREFIX)) {
+                    return node.equals(writeLock.heldNode()) ? null : node;
+                }
+            }
+            return null;
+        }
+    }
+
+    private class WriteLock extends SequenceLock {
+
+        WriteLock(ZkClient client, String lockPath, ThreadLocal<Map<String, ReentrantState>> held) {
+            super(client, lockPath, WRITE_PREFIX, held, null);
+        }
+
+        @Override
+        public boolean lock(long timeout) {
+            if (readLock.isHeldByCurrentThread() && !this.isHeldByCurrentThread()) {
+                // 写锁要等待自己持有的读锁释放，直接失败避免死锁
+                throw new ZkClientException("Upgrade read lock to write lock is not supported. " + this.getLockPath());
+            }
+            return super.lock(timeout);
+        }
+
+        /**
+         * @return 当前线程持有的写节点名称，没有持有时返回null
+         */
+        String heldNode() {
+            ReentrantState state = this.held().get(this.getLockPath());
+            if (state == null) {
+                return null;
+            }
+            String node = state.getLockPath();
+            return node.substring(node.lastIndexOf('/') + 1);
+        }
+    }
+}
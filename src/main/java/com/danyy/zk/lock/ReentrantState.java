@@ -6,9 +6,16 @@ package com.danyy.zk.lock;
 public class ReentrantState {
     private String lockPath;
     private volatile int count;
+    // 加锁时使用的锁对象，最后一次释放由它完成
+    private final SequenceLock owner;
 
     public ReentrantState(String lockPath) {
+        this(lockPath, null);
+    }
+
+    ReentrantState(String lockPath, SequenceLock owner) {
         this.lockPath = lockPath;
+        this.owner = owner;
         this.count = 1;
     }
 
@@ -31,4 +38,8 @@ public class ReentrantState {
     public String getLockPath() {
         return this.lockPath;
     }
+
+    SequenceLock getOwner() {
+        return this.owner;
+    }
 }
@@ -0,0 +1,335 @@
+package com.danyy.zk.lock;
+
+import com.danyy.zk.ZkClient;
+import com.danyy.zk.ZkClientException;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按顺序节点排队的进程间锁，该对象线程安全支持多线程调用，锁可重入
+ * 每个等待者只在排在自己前面的一个节点上注册exists watch，
+ * 释放锁只唤醒下一个等待者，锁目录的变化不会唤醒所有等待者
+ */
+public class SequenceLock implements Lock {
+    private final static Logger LOGGER = LoggerFactory.getLogger(SequenceLock.class);
+
+    // 锁节点名称前缀
+    static final String PREFIX = "lock-";
+    // 顺序节点序号的长度
+    private static final int SEQUENCE_LENGTH = 10;
+
+    // 当前线程持有的锁，按锁目录保存重入状态；同一注册表创建的锁共用，锁对象被移除重建后仍能识别重入
+    private final ThreadLocal<Map<String, ReentrantState>> currentLock;
+
+    private final ZkClient client;
+    // 锁的目录
+    private final String lockPath;
+    // 锁节点名称前缀
+    private final String prefix;
+    // 创建该锁的注册表，独立创建时为null
+    private final LockRegistry registry;
+    // 持有和等待该锁的线程数
+    private final AtomicInteger active = new AtomicInteger();
+    // 最后一次加锁或释放锁的时间
+    private volatile long lastUsed = System.nanoTime();
+
+    /**
+     * @param client   客户端
+     * @param lockPath 锁的目录，不存在时在第一次加锁时创建
+     */
+    public SequenceLock(ZkClient client, String lockPath) {
+        this(client, lockPath, new ThreadLocal<Map<String, ReentrantState>>(), null);
+    }
+
+    SequenceLock(ZkClient client, String lockPath, ThreadLocal<Map<String, ReentrantState>> currentLock, LockRegistry registry) {
+        this(client, lockPath, PREFIX, currentLock, registry);
+    }
+
+    SequenceLock(ZkClient client, String lockPath, String prefix, ThreadLocal<Map<String, ReentrantState>> currentLock, LockRegistry registry) {
+        this.client = client;
+        this.lockPath = normalize(lockPath);
+        this.prefix = prefix;
+        this.currentLock = currentLock;
+        this.registry = registry;
+    }
+
+    static String normalize(String lockPath) {
+        return lockPath.length() > 1 && lockPath.endsWith("/") ? lockPath.substring(0, lockPath.length() - 1) : lockPath;
+    }
+
+    /**
+     * 获得锁，一直等待
+     *
+     * @return 是否获取到锁
+     */
+    @Override
+    public boolean lock() {
+        return this.lock(0);
+    }
+
+    /**
+     * 获得锁，该锁可重入
+     *
+     * @param timeout 0 或者 大于0的 毫秒数，当设置为0时，程序将一直等待，直到获取到锁，
+     *                当设置大于0时，等待获得锁的最长时间为timeout的值
+     * @return 是否获取到锁，超时或线程被中断时返回false
+     */
+    @Override
+    public boolean lock(long timeout) {
+        Map<String, ReentrantState> held = this.held();
+        ReentrantState state = held.get(this.lockPath);
+        if (state != null) {
+            // 重入锁
+            state.add();
+            return true;
+        }
+        this.enter();
+        String node = null;
+        try {
+            node = this.acquire(timeout);
+            return node != null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            if (node != null) {
+                held.put(this.lockPath, new ReentrantState(node, this));
+            } else {
+                this.exit();
+            }
+        }
+    }
+
+    /**
+     * 创建节点排队，等待排在前面的节点删除
+     *
+     * @param timeout 等待时间，0表示一直等待
+     * @return 获取到锁时返回创建的节点，超时返回null
+     */
+    String acquire(long timeout) throws InterruptedException {
+        String node = this.client.create(this.lockPath + "/" + this.prefix, CreateMode.EPHEMERAL_SEQUENTIAL);
+        boolean locked = false;
+        try {
+            locked = this.await(node, timeout);
+            return locked ? node : null;
+        } finally {
+            if (!locked) {
+                this.deleteQuietly(node);
+            }
+        }
+    }
+
+    /**
+     * 删除节点释放锁
+     *
+     * @param node acquire()返回的节点
+     */
+    void release(String node) {
+        this.client.delete(node);
+    }
+
+    /**
+     * 线程开始持有或等待锁
+     */
+    void enter() {
+        this.active.incrementAndGet();
+        this.lastUsed = System.nanoTime();
+    }
+
+    /**
+     * 线程释放锁或放弃等待
+     */
+    void exit() {
+        this.lastUsed = System.nanoTime();
+        this.active.decrementAndGet();
+    }
+
+    Map<String, ReentrantState> held() {
+        Map<String, ReentrantState> held = currentLock.get();
+        if (held == null) {
+            held = new HashMap<String, ReentrantState>(4);
+            currentLock.set(held);
+        }
+        return held;
+    }
+
+    /**
+     * 等待排在前面的节点删除
+     *
+     * @param node    本次加锁创建的节点
+     * @param timeout 等待时间，0表示一直等待
+     * @return 是否获取到锁
+     */
+    private boolean await(String node, long timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        String name = node.substring(node.lastIndexOf('/') + 1);
+        while (true) {
+            String predecessor = this.predecessor(name);
+            if (predecessor == null) {
+                return true;
+            }
+            final CountDownLatch latch = new CountDownLatch(1);
+            final boolean[] expired = new boolean[1];
+            Watcher watcher = new Watcher() {
+                @Override
+                public void process(WatchedEvent event) {
+                    if (event.getState() == Event.KeeperState.Expired) {
+                        expired[0] = true;
+                        latch.countDown();
+                    } else if (event.getType() != Event.EventType.None) {
+                        latch.countDown();
+                    }
+                }
+            };
+            // 前一个节点已删除时重新检查
+            if (!this.client.exists(this.lockPath + "/" + predecessor, watcher)) {
+                continue;
+            }
+            if (timeout > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || !latch.await(remaining, TimeUnit.NANOSECONDS)) {
+                    return false;
+                }
+            } else {
+                latch.await();
+            }
+            if (expired[0]) {
+                throw new LockSessionException("Get lock fail,zookeeper session timeout. " + node);
+            }
+        }
+    }
+
+    /**
+     * 获取需要等待的节点
+     *
+     * @param name 节点名称
+     * @return 需要等待的节点名称，不需要等待时返回null
+     */
+    private String predecessor(String name) {
+        List<String> nodes = sort(this.client.getChild(this.lockPath, false));
+        int index = nodes.indexOf(name);
+        if (index < 0) {
+            throw new LockSessionException("Get lock fail,lock node lost. " + this.lockPath + "/" + name);
+        }
+        return this.blocker(nodes, index);
+    }
+
+    /**
+     * 从排序后的节点中选出需要等待的节点，默认等待排在前面的一个节点
+     *
+     * @param nodes 按顺序号排序的节点
+     * @param index 本次加锁创建的节点的位置
+     * @return 需要等待的节点名称，不需要等待时返回null
+     */
+    String blocker(List<String> nodes, int index) {
+        return index == 0 ? null : nodes.get(index - 1);
+    }
+
+    /**
+     * 按顺序号排序，忽略节点名称的前缀
+     *
+     * @param nodes 锁目录下的节点
+     * @return 排序后的节点
+     */
+    static List<String> sort(List<String> nodes) {
+        List<String> sorted = new ArrayList<String>(nodes.size());
+        for (String node : nodes) {
+            if (node.length() >= SEQUENCE_LENGTH) {
+                sorted.add(node);
+            }
+        }
+        Collections.sort(sorted, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return sequence(a).compareTo(sequence(b));
+            }
+        });
+        return sorted;
+    }
+
+    static String sequence(String node) {
+        return node.substring(node.length() - SEQUENCE_LENGTH);
+    }
+
+    void deleteQuietly(String node) {
+        try {
+            this.client.delete(node);
+        } catch (ZkClientException e) {
+            if (e.getCode() != KeeperException.Code.NONODE) {
+                LOGGER.warn("Delete lock node {} fail.", node, e);
+            }
+        }
+    }
+
+    /**
+     * 释放锁，共用重入状态时可以通过同一路径的其它锁对象释放
+     */
+    @Override
+    public void unlock() {
+        Map<String, ReentrantState> held = currentLock.get();
+        ReentrantState state = held == null ? null : held.get(this.lockPath);
+        if (state != null) {
+            int count = state.decrementAndGet();
+            if (count < 1) {
+                held.remove(this.lockPath);
+                SequenceLock owner = state.getOwner() == null ? this : state.getOwner();
+                owner.unlock(state);
+            }
+        }
+    }
+
+    /**
+     * 当前线程最后一次释放锁，由加锁时使用的锁对象执行，保证持有计数记在同一个对象上
+     *
+     * @param state 加锁时记录的重入状态
+     */
+    void unlock(ReentrantState state) {
+        this.exit();
+        this.release(state.getLockPath());
+    }
+
+    /**
+     * 销毁锁，该锁不注册监听；由注册表创建时从注册表中移除
+     */
+    @Override
+    public void destroy() {
+        if (registry != null) {
+            registry.remove(this);
+        }
+    }
+
+    /**
+     * @return 当前线程是否持有该锁
+     */
+    boolean isHeldByCurrentThread() {
+        Map<String, ReentrantState> held = currentLock.get();
+        return held != null && held.containsKey(this.lockPath);
+    }
+
+    /**
+     * 是否没有线程持有或等待该锁，且空闲超过指定时间
+     *
+     * @param idleNanos 空闲时间（纳秒）
+     */
+    boolean isIdle(long idleNanos) {
+        return active.get() == 0 && System.nanoTime() - lastUsed >= idleNanos;
+    }
+
+    public String getLockPath() {
+        return lockPath;
+    }
+}
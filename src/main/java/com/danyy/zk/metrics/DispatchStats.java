@@ -0,0 +1,111 @@
+package com.danyy.zk.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * 监听器回调队列的统计：队列深度、队列满的次数及其处理结果、从入队到开始回调的延迟
+ */
+public class DispatchStats implements DispatchStatsMBean {
+
+    private final IntSupplier queueDepth;
+    //入队到开始回调的延迟，纳秒
+    private final LatencyHistogram delay = new LatencyHistogram();
+    //队列满的次数
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder callerRuns = new LongAdder();
+
+    /**
+     * @param queueDepth 获取当前队列深度
+     */
+    public DispatchStats(IntSupplier queueDepth) {
+        this.queueDepth = queueDepth;
+    }
+
+    public void recordDelay(long nanos) {
+        delay.record(nanos);
+    }
+
+    public void recordRejected() {
+        rejected.increment();
+    }
+
+    public void recordDropped() {
+        dropped.increment();
+    }
+
+    public void recordCoalesced() {
+        coalesced.increment();
+    }
+
+    public void recordCallerRuns() {
+        callerRuns.increment();
+    }
+
+    public LatencyHistogram getDelay() {
+        return delay;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queueDepth.getAsInt();
+    }
+
+    @Override
+    public long getDispatched() {
+        return delay.getCount();
+    }
+
+    @Override
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    @Override
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    @Override
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    @Override
+    public long getCallerRuns() {
+        return callerRuns.sum();
+    }
+
+    @Override
+    public double getP50DelayMs() {
+        return delay.percentile(0.5) / 1000000.0;
+    }
+
+    @Override
+    public double getP99DelayMs() {
+        return delay.percentile(0.99) / 1000000.0;
+    }
+
+    @Override
+    public double getMaxDelayMs() {
+        return delay.getMax() / 1000000.0;
+    }
+
+    @Override
+    public void reset() {
+        delay.reset();
+        rejected.reset();
+        dropped.reset();
+        coalesced.reset();
+        callerRuns.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "dispatch{queueDepth=" + getQueueDepth() + ", dispatched=" + getDispatched() + ", rejected=" + getRejected()
+                + ", dropped=" + getDropped() + ", coalesced=" + getCoalesced() + ", callerRuns=" + getCallerRuns()
+                + ", p99Delay=" + getP99DelayMs() + "ms}";
+    }
+}
@@ -0,0 +1,27 @@
+package com.danyy.zk.metrics;
+
+/**
+ * 监听器回调队列的JMX指标
+ */
+public interface DispatchStatsMBean {
+
+    int getQueueDepth();
+
+    long getDispatched();
+
+    long getRejected();
+
+    long getDropped();
+
+    long getCoalesced();
+
+    long getCallerRuns();
+
+    double getP50DelayMs();
+
+    double getP99DelayMs();
+
+    double getMaxDelayMs();
+
+    void reset();
+}
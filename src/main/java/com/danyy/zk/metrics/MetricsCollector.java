@@ -0,0 +1,22 @@
+package com.danyy.zk.metrics;
+
+import org.apache.zookeeper.KeeperException;
+
+/**
+ * 操作指标收集接口
+ * 每个ZkClient操作（包括重试和等待连接恢复的时间）结束后回调一次，
+ * 回调在调用线程或zookeeper事件线程中执行，实现类需要线程安全且不能阻塞
+ */
+public interface MetricsCollector {
+
+    /**
+     * 记录一次操作
+     *
+     * @param op           操作名，如 getData、setData、create、delete、exists、getChildren、multi
+     * @param path         节点路径，multi操作为第一个操作的路径
+     * @param latencyNanos 耗时（纳秒）
+     * @param bytes        读写的数据大小
+     * @param code         结果，成功为OK，未连接到服务端为CONNECTIONLOSS，其它非zookeeper错误为SYSTEMERROR
+     */
+    void record(String op, String path, long latencyNanos, int bytes, KeeperException.Code code);
+}
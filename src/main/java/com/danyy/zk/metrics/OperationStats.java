@@ -0,0 +1,152 @@
+package com.danyy.zk.metrics;
+
+import org.apache.zookeeper.KeeperException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单个操作的统计：次数、延迟分布、按错误码的失败次数、数据大小分布
+ */
+public class OperationStats implements OperationStatsMBean {
+
+    private static final KeeperException.Code[] CODES = KeeperException.Code.values();
+
+    private final String op;
+    //延迟，纳秒
+    private final LatencyHistogram latency = new LatencyHistogram();
+    //数据大小，字节
+    private final LatencyHistogram payload = new LatencyHistogram();
+    private final LongAdder errors = new LongAdder();
+    //按KeeperException.Code.ordinal()统计的失败次数
+    private final AtomicLongArray errorCodes = new AtomicLongArray(CODES.length);
+
+    public OperationStats(String op) {
+        this.op = op;
+    }
+
+    /**
+     * 记录一次操作
+     *
+     * @param latencyNanos 耗时
+     * @param bytes        数据大小
+     * @param code         结果
+     */
+    public void record(long latencyNanos, int bytes, KeeperException.Code code) {
+        latency.record(latencyNanos);
+        payload.record(bytes);
+        if (code != KeeperException.Code.OK) {
+            errors.increment();
+            errorCodes.incrementAndGet(code.ordinal());
+        }
+    }
+
+    public String getOp() {
+        return op;
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public LatencyHistogram getPayload() {
+        return payload;
+    }
+
+    /**
+     * @param code 错误码
+     * @return 该错误码的失败次数
+     */
+    public long getErrorCount(KeeperException.Code code) {
+        return errorCodes.get(code.ordinal());
+    }
+
+    /**
+     * @return 按错误码统计的失败次数，只包含出现过的错误码
+     */
+    public Map<KeeperException.Code, Long> getErrorCounts() {
+        Map<KeeperException.Code, Long> counts = new LinkedHashMap<KeeperException.Code, Long>();
+        for (KeeperException.Code code : CODES) {
+            long count = errorCodes.get(code.ordinal());
+            if (count > 0) {
+                counts.put(code, count);
+            }
+        }
+        return counts;
+    }
+
+    @Override
+    public long getCount() {
+        return latency.getCount();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public double getMeanMs() {
+        return latency.getMean() / 1000000.0;
+    }
+
+    @Override
+    public double getP50Ms() {
+        return latency.percentile(0.5) / 1000000.0;
+    }
+
+    @Override
+    public double getP99Ms() {
+        return latency.percentile(0.99) / 1000000.0;
+    }
+
+    @Override
+    public double getP999Ms() {
+        return latency.percentile(0.999) / 1000000.0;
+    }
+
+    @Override
+    public double getMaxMs() {
+        return latency.getMax() / 1000000.0;
+    }
+
+    @Override
+    public long getPayloadBytes() {
+        return payload.getSum();
+    }
+
+    @Override
+    public long getP99PayloadBytes() {
+        return payload.percentile(0.99);
+    }
+
+    @Override
+    public String getErrorCodes() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<KeeperException.Code, Long> entry : getErrorCounts().entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(entry.getKey().name()).append('=').append(entry.getValue());
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void reset() {
+        latency.reset();
+        payload.reset();
+        errors.reset();
+        for (int i = 0; i < CODES.length; i++) {
+            errorCodes.set(i, 0);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return op + "{count=" + getCount() + ", errors=" + getErrors() + ", p50=" + getP50Ms() + "ms, p99=" + getP99Ms()
+                + "ms, p999=" + getP999Ms() + "ms, max=" + getMaxMs() + "ms, bytes=" + getPayloadBytes() + "}";
+    }
+}
@@ -0,0 +1,32 @@
+package com.danyy.zk.metrics;
+
+/**
+ * 单个操作的JMX指标
+ */
+public interface OperationStatsMBean {
+
+    long getCount();
+
+    long getErrors();
+
+    double getMeanMs();
+
+    double getP50Ms();
+
+    double getP99Ms();
+
+    double getP999Ms();
+
+    double getMaxMs();
+
+    long getPayloadBytes();
+
+    long getP99PayloadBytes();
+
+    /**
+     * @return 按错误码统计的失败次数，如 CONNECTIONLOSS=3,NONODE=12
+     */
+    String getErrorCodes();
+
+    void reset();
+}
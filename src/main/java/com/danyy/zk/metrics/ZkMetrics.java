@@ -0,0 +1,162 @@
+package com.danyy.zk.metrics;
+
+import org.apache.zookeeper.KeeperException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ZkClient内置的操作指标
+ * 按操作名统计次数、延迟分布、错误码和数据大小，可选注册到JMX：
+ * com.danyy.zk:type=ZkClient,name={name},op={op}
+ * 监听器回调队列注册为 com.danyy.zk:type=ZkClient,name={name},component=dispatch
+ */
+public class ZkMetrics implements MetricsCollector {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(ZkMetrics.class);
+
+    private final ConcurrentHashMap<String, OperationStats> stats = new ConcurrentHashMap<String, OperationStats>();
+    //JMX名称，为null时不注册
+    private volatile String jmxName;
+    //监听器回调队列统计
+    private volatile DispatchStats dispatchStats;
+
+    @Override
+    public void record(String op, String path, long latencyNanos, int bytes, KeeperException.Code code) {
+        this.getStats(op).record(latencyNanos, bytes, code);
+    }
+
+    /**
+     * 获取操作的统计，不存在时创建
+     *
+     * @param op 操作名
+     * @return OperationStats
+     */
+    public OperationStats getStats(String op) {
+        OperationStats opStats = stats.get(op);
+        if (opStats == null) {
+            OperationStats created = new OperationStats(op);
+            opStats = stats.putIfAbsent(op, created);
+            if (opStats == null) {
+                opStats = created;
+                if (jmxName != null) {
+                    this.register(jmxName, created);
+                }
+            }
+        }
+        return opStats;
+    }
+
+    /**
+     * @return 监听器回调队列统计，未设置时返回null
+     */
+    public DispatchStats getDispatchStats() {
+        return dispatchStats;
+    }
+
+    public void setDispatchStats(DispatchStats dispatchStats) {
+        this.dispatchStats = dispatchStats;
+    }
+
+    /**
+     * @return 所有操作的统计，按操作名排序
+     */
+    public Map<String, OperationStats> getAllStats() {
+        return Collections.unmodifiableMap(new TreeMap<String, OperationStats>(stats));
+    }
+
+    /**
+     * 清空所有统计
+     */
+    public void reset() {
+        for (OperationStats opStats : stats.values()) {
+            opStats.reset();
+        }
+        if (dispatchStats != null) {
+            dispatchStats.reset();
+        }
+    }
+
+    /**
+     * 注册到JMX，之后出现的操作也会自动注册
+     *
+     * @param name 客户端名称，同一JVM内需唯一
+     */
+    public synchronized void registerJmx(String name) {
+        this.jmxName = name;
+        for (OperationStats opStats : stats.values()) {
+            this.register(name, opStats);
+        }
+        if (dispatchStats != null) {
+            this.register(dispatchStats, dispatchName(name));
+        }
+    }
+
+    /**
+     * 从JMX注销
+     */
+    public synchronized void unregisterJmx() {
+        String name = this.jmxName;
+        this.jmxName = null;
+        if (name == null) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName objectName = dispatchName(name);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Unregister dispatch mbean fail", e);
+        }
+        for (String op : stats.keySet()) {
+            try {
+                ObjectName objectName = objectName(name, op);
+                if (server.isRegistered(objectName)) {
+                    server.unregisterMBean(objectName);
+                }
+            } catch (Exception e) {
+                LOGGER.warn("Unregister metrics mbean fail, op:{}", op, e);
+            }
+        }
+    }
+
+    private void register(String name, OperationStats opStats) {
+        try {
+            this.register(opStats, objectName(name, opStats.getOp()));
+        } catch (Exception e) {
+            LOGGER.warn("Register metrics mbean fail, op:{}", opStats.getOp(), e);
+        }
+    }
+
+    private void register(Object mbean, ObjectName objectName) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(mbean, objectName);
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Register metrics mbean fail, name:{}", objectName, e);
+        }
+    }
+
+    private static ObjectName dispatchName(String name) {
+        try {
+            return new ObjectName("com.danyy.zk:type=ZkClient,name=" + ObjectName.quote(name) + ",component=dispatch");
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Invalid jmx name " + name, e);
+        }
+    }
+
+    private static ObjectName objectName(String name, String op) throws Exception {
+        return new ObjectName("com.danyy.zk:type=ZkClient,name=" + ObjectName.quote(name) + ",op=" + op);
+    }
+}
@@ -0,0 +1,62 @@
+package com.danyy.zk.watcher;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 子节点列表比较
+ * 子节点保存为排序后的数组，两次列表通过归并比较得到增加和删除的子节点，
+ * 除本次的子节点数组外只为变化的子节点分配内存
+ */
+final class ChildDiff {
+
+    static final String[] EMPTY = new String[0];
+
+    private ChildDiff() {
+    }
+
+    /**
+     * 将子节点列表转为排序后的数组
+     *
+     * @param children 子节点名称列表，可以为null
+     * @return 排序后的数组
+     */
+    static String[] sort(List<String> children) {
+        if (children == null || children.isEmpty()) {
+            return EMPTY;
+        }
+        String[] sorted = children.toArray(new String[children.size()]);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * 归并比较两个排序后的子节点数组
+     *
+     * @param previous 上次的子节点
+     * @param current  本次的子节点
+     * @param created  输出：增加的子节点
+     * @param deleted  输出：删除的子节点
+     */
+    static void diff(String[] previous, String[] current, List<String> created, List<String> deleted) {
+        int i = 0;
+        int j = 0;
+        while (i < previous.length && j < current.length) {
+            int cmp = previous[i].compareTo(current[j]);
+            if (cmp == 0) {
+                i++;
+                j++;
+            } else if (cmp < 0) {
+                deleted.add(previous[i++]);
+            } else {
+                created.add(current[j++]);
+            }
+        }
+        while (i < previous.length) {
+            deleted.add(previous[i++]);
+        }
+        while (j < current.length) {
+            created.add(current[j++]);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.danyy.zk.watcher;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * 异步请求流水线
+ * 最多maxInFlight个请求同时在途，每个请求完成时发送下一个；
+ * 设置了速率时按速率发送，超出速率的请求在调度线程中延迟发送；
+ * 不阻塞调用线程，可以在zookeeper事件线程中启动
+ *
+ * @param <T> 请求项
+ * @param <R> 请求结果
+ */
+abstract class Pipeline<T, R> {
+
+    //按速率延迟发送的调度线程，所有客户端共享
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r);
+            thread.setDaemon(true);
+            thread.setName("zkClient-pipeline");
+            return thread;
+        }
+    });
+
+    private final List<T> items;
+    private final int maxInFlight;
+    private final RateLimiter limiter;
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicInteger remaining;
+    private final CompletableFuture<Void> done = new CompletableFuture<Void>();
+    private volatile Throwable error;
+
+    /**
+     * @param items       请求项
+     * @param maxInFlight 最大在途请求数
+     * @param limiter     速率限制，为null时不限速
+     */
+    Pipeline(List<T> items, int maxInFlight, RateLimiter limiter) {
+        this.items = items;
+        this.maxInFlight = Math.max(maxInFlight, 1);
+        this.limiter = limiter;
+        this.remaining = new AtomicInteger(items.size());
+    }
+
+    /**
+     * 发送请求
+     */
+    abstract CompletableFuture<R> send(T item);
+
+    /**
+     * 请求完成时回调，在zookeeper事件线程、调度线程或调用线程中执行
+     *
+     * @param error 失败原因，成功时为null
+     */
+    abstract void completed(T item, R result, Throwable error);
+
+    /**
+     * 记录失败，所有请求完成后结果以第一个失败原因结束
+     */
+    void fail(Throwable cause) {
+        if (error == null) {
+            error = cause;
+        }
+    }
+
+    /**
+     * 开始发送
+     *
+     * @return 所有请求完成时结束
+     */
+    CompletableFuture<Void> start() {
+        if (items.isEmpty()) {
+            done.complete(null);
+        }
+        int window = Math.min(maxInFlight, items.size());
+        for (int i = 0; i < window; i++) {
+            this.sendNext();
+        }
+        return done;
+    }
+
+    private void sendNext() {
+        while (true) {
+            final int index = next.getAndIncrement();
+            if (index >= items.size()) {
+                return;
+            }
+            long delay = limiter == null ? 0 : limiter.reserve();
+            if (delay > 0) {
+                SCHEDULER.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (sendOne(index)) {
+                            sendNext();
+                        }
+                    }
+                }, delay, TimeUnit.NANOSECONDS);
+                return;
+            }
+            // 已完成的请求（如连接断开时立即失败）在循环中处理，避免递归
+            if (!this.sendOne(index)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return 请求已同步完成时返回true
+     */
+    private boolean sendOne(int index) {
+        final T item = items.get(index);
+        CompletableFuture<R> future;
+        try {
+            future = this.send(item);
+        } catch (RuntimeException e) {
+            future = new CompletableFuture<R>();
+            future.completeExceptionally(e);
+        }
+        if (future.isDone()) {
+            this.complete(item, future);
+            return true;
+        }
+        final CompletableFuture<R> pending = future;
+        future.whenComplete(new BiConsumer<R, Throwable>() {
+            @Override
+            public void accept(R result, Throwable throwable) {
+                complete(item, pending);
+                sendNext();
+            }
+        });
+        return false;
+    }
+
+    private void complete(T item, CompletableFuture<R> future) {
+        try {
+            R result;
+            try {
+                result = future.join();
+            } catch (CompletionException e) {
+                this.completed(item, null, e.getCause() != null ? e.getCause() : e);
+                return;
+            } catch (RuntimeException e) {
+                this.completed(item, null, e);
+                return;
+            }
+            this.completed(item, result, null);
+        } catch (RuntimeException e) {
+            this.fail(e);
+        } finally {
+            if (remaining.decrementAndGet() == 0) {
+                if (error == null) {
+                    done.complete(null);
+                } else {
+                    done.completeExceptionally(error);
+                }
+            }
+        }
+    }
+
+    /**
+     * 令牌间隔限速，多个流水线可以共享
+     */
+    static final class RateLimiter {
+        private final long intervalNanos;
+        private long nextFree = System.nanoTime();
+
+        /**
+         * @param permitsPerSecond 每秒请求数
+         */
+        RateLimiter(int permitsPerSecond) {
+            this.intervalNanos = 1000000000L / Math.max(permitsPerSecond, 1);
+        }
+
+        /**
+         * 预留一个发送时间
+         *
+         * @return 需要等待的纳秒数
+         */
+        synchronized long reserve() {
+            long now = System.nanoTime();
+            long at = Math.max(now, nextFree);
+            nextFree = at + intervalNanos;
+            return at - now;
+        }
+    }
+}
@@ -2,18 +2,42 @@ package com.danyy.zk.watcher;
 
 import com.danyy.zk.ZkClient;
 import com.danyy.zk.ZkClientException;
+import com.danyy.zk.ZkTransaction;
+import com.danyy.zk.ZkTransactionException;
+import com.danyy.zk.cache.TreeCache;
 import com.danyy.zk.listener.*;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.SocketException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * zookeeper watch事件处理类
@@ -21,6 +45,22 @@ import java.util.concurrent.ConcurrentHashMap;
 public class WatcherProcess {
 
     private final static Logger LOGGER = LoggerFactory.getLogger(WatcherProcess.class);
+    //读取新增子节点数据时同时在途的请求数
+    private static final int MAX_FETCH_IN_FLIGHT = 200;
+    //流水线读取结束标记
+    private static final Node FETCH_END = new Node();
+    //会话恢复时每个multi重建的顽固节点数
+    private static final int STUBBORN_BATCH_SIZE = 100;
+    //合并窗口结束后读取节点的调度线程，所有客户端共享
+    private static final ScheduledExecutorService COALESCE_SCHEDULER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r);
+            thread.setDaemon(true);
+            thread.setName("zkClient-coalesce");
+            return thread;
+        }
+    });
     private ZkClient zkClient;
     //节点监听池
     private final ConcurrentHashMap<String, ListenerManager> nodeListenerPool = new ConcurrentHashMap<String, ListenerManager>();
@@ -30,15 +70,49 @@ public class WatcherProcess {
     private final ConcurrentHashMap<String, Node> stubbornNodePool = new ConcurrentHashMap<String, Node>();
     //客户端状态监听池
     private final ConcurrentHashMap<Integer, StateListener> statePool = new ConcurrentHashMap<Integer, StateListener>();
+    //子树本地缓存
+    private final CopyOnWriteArrayList<TreeCache> caches = new CopyOnWriteArrayList<TreeCache>();
     private ListenerProcessPool listenerPool = null;
+    //会话恢复时的最大在途请求数
+    private volatile int recoveryMaxInFlight = MAX_FETCH_IN_FLIGHT;
+    //会话恢复时每秒请求数，0表示不限速
+    private volatile int recoveryRate = 0;
+    //会话恢复完成的监听器
+    private final CopyOnWriteArrayList<RecoveryListener> recoveryListeners = new CopyOnWriteArrayList<RecoveryListener>();
+    //处于合并窗口中、等待读取的节点，d:数据 c:子节点
+    private final Set<String> pendingRefresh = ConcurrentHashMap.newKeySet();
 
     /**
      * @param zkClient         ZkClinet对象用于操作zookeeper
      * @param listenerPoolSize zookeeper事件触发后的回调执行线程池大小
      */
     public WatcherProcess(ZkClient zkClient, int listenerPoolSize) {
+        this(zkClient, listenerPoolSize, DispatchMode.UNORDERED);
+    }
+
+    /**
+     * @param zkClient         ZkClinet对象用于操作zookeeper
+     * @param listenerPoolSize zookeeper事件触发后的回调执行线程池大小
+     * @param mode             回调分发方式
+     */
+    public WatcherProcess(ZkClient zkClient, int listenerPoolSize, DispatchMode mode) {
+        this(zkClient, new ListenerProcessPool(listenerPoolSize, mode));
+    }
+
+    /**
+     * @param zkClient     ZkClinet对象用于操作zookeeper
+     * @param listenerPool 回调执行线程池
+     */
+    public WatcherProcess(ZkClient zkClient, ListenerProcessPool listenerPool) {
         this.zkClient = zkClient;
-        listenerPool = new ListenerProcessPool(listenerPoolSize);
+        this.listenerPool = listenerPool;
+    }
+
+    /**
+     * @return 回调执行线程池
+     */
+    public ListenerProcessPool getListenerPool() {
+        return listenerPool;
     }
 
     /**
@@ -60,67 +134,434 @@ public class WatcherProcess {
      * @throws InterruptedException
      */
     public void listen(String path, Listener listener, boolean ChildNodeChange, boolean childDataChange) throws ZkClientException {
+        this.listen(path, listener, ChildNodeChange, childDataChange, 0);
+    }
+
+    /**
+     * 设置监听对象,监听节点变化，当监听的事件发生时将回调listen()方法
+     *
+     * @param path
+     * @param ChildNodeChange ture 为监听子节点变化，false为监听本节点数据变化
+     * @param childDataChange 监听子节点数据变化
+     * @param coalesceWindow  事件合并窗口（毫秒），0表示不合并
+     */
+    public ListenerHandle listen(String path, Listener listener, boolean ChildNodeChange, boolean childDataChange, long coalesceWindow) throws ZkClientException {
         try {
-            // manager保存着当前zkClient的listen实例
-            ListenerManager manager = new ListenerManager(listener, childDataChange, ChildNodeChange);
             if (ChildNodeChange || childDataChange) {
                 //节点监听池
-                nodeListenerPool.put(path, manager);
-                this.childChange(path, true);
-            } else {
-                //数据监听池
-                dataListenerPool.put(path, manager);
-                this.dataChange(path);
+                return this.register(nodeListenerPool, path, listener, null, childDataChange, ChildNodeChange, coalesceWindow);
             }
+            //数据监听池
+            return this.register(dataListenerPool, path, listener, null, false, false, coalesceWindow);
         } catch (Exception e) {
             throw new ZkClientException("Listen node " + path, e);
         }
     }
 
     /**
-     * 取消节点监听
+     * 设置批量监听对象，监听子节点变化（及子节点数据变化）
+     *
+     * @param path            父节点
+     * @param listener        批量监听器
+     * @param childDataChange 是否同时监听子节点数据变化
+     * @param coalesceWindow  事件合并窗口（毫秒），0表示不合并
+     */
+    public ListenerHandle listen(String path, BatchListener listener, boolean childDataChange, long coalesceWindow) throws ZkClientException {
+        try {
+            return this.register(nodeListenerPool, path, null, listener, childDataChange, !childDataChange, coalesceWindow);
+        } catch (Exception e) {
+            throw new ZkClientException("Listen node " + path, e);
+        }
+    }
+
+    /**
+     * 注册监听器
+     * 节点第一次注册时创建监听器组并注册watch；之后的监听器加入同一个监听器组，共用watch，
+     * 只向新监听器回调节点的当前状态。合并窗口以第一次注册为准
+     *
+     * @return 注册句柄，用于单独取消该监听器
+     */
+    private ListenerHandle register(ConcurrentHashMap<String, ListenerManager> pool, String path, Listener listener, BatchListener batchListener,
+                                    boolean childDataChange, boolean childChange, long coalesceWindow) throws ZkClientException, SocketException {
+        boolean child = pool == nodeListenerPool;
+        while (true) {
+            ListenerManager created = new ListenerManager(new ListenerGroup(), childDataChange, childChange);
+            created.setCoalesceWindow(coalesceWindow);
+            ListenerManager manager = pool.putIfAbsent(path, created);
+            if (manager == null) {
+                ListenerGroup.Entry entry = created.getListeners().add(listener, batchListener, childDataChange);
+                if (child) {
+                    this.childChange(path, true);
+                } else {
+                    this.refreshData(path, true);
+                }
+                return this.handle(path, child, created, entry);
+            }
+            if (manager.getListeners().childData() == null) {
+                throw new ZkClientException("node " + path + " is listened as child data of its parent.");
+            }
+            ListenerGroup.Entry entry = manager.getListeners().add(listener, batchListener, childDataChange);
+            if (entry == null) {
+                // 最后一个监听器刚被取消，移除后重新注册
+                pool.remove(path, manager);
+                continue;
+            }
+            try {
+                if (child) {
+                    this.snapshotChild(path, manager, entry);
+                } else {
+                    this.snapshotData(path, entry);
+                }
+            } catch (ZkClientException e) {
+                this.handle(path, child, manager, entry).unlisten();
+                throw e;
+            }
+            return this.handle(path, child, manager, entry);
+        }
+    }
+
+    /**
+     * 向加入已有监听的数据监听器回调节点当前数据
+     */
+    private void snapshotData(String path, ListenerGroup.Entry entry) throws ZkClientException {
+        byte[] data = this.zkClient.getData(path, false);
+        ListenerManager lm = new ListenerManager(entry.getListener());
+        lm.setData(data);
+        lm.setEventType(EventType.NodeDataChanged);
+        listenerPool.invoker(this.orderKey(path), path, lm);
+    }
+
+    /**
+     * 向加入已有监听的子节点监听器回调当前的子节点；
+     * 新监听器需要子节点数据而已有监听没有时，为已有子节点注册数据监听
+     */
+    private void snapshotChild(String path, ListenerManager manager, ListenerGroup.Entry entry) throws ZkClientException {
+        List<String> created = new ArrayList<String>();
+        boolean upgrade;
+        synchronized (manager) {
+            upgrade = entry.isChildData() && !manager.isChildDataChange();
+            if (upgrade) {
+                manager.setChildDataChange(true);
+            }
+            for (String node : manager.getChildren()) {
+                created.add(path + "/" + node);
+            }
+        }
+        if (upgrade) {
+            for (String cpath : created) {
+                this.listenChildData(cpath, manager);
+            }
+        }
+        ListenerManager target = entry.getListener() != null ? new ListenerManager(entry.getListener(), upgrade, false)
+                : new ListenerManager(entry.getBatchListener(), upgrade, false);
+        List<String> deleted = new ArrayList<String>();
+        if (isEventThread()) {
+            this.deliverAsync(path, created, deleted, target, new CompletableFuture<Void>());
+            return;
+        }
+        try {
+            this.deliverInline(path, created, deleted, target);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ZkClientException("Listen child node " + path + " interrupted.", e);
+        } catch (SocketException e) {
+            throw new ZkClientException("Listen child node " + path, e);
+        }
+    }
+
+    /**
+     * 为子节点注册数据监听，回调给父节点中监听子节点数据的监听器
+     */
+    private void listenChildData(String cpath, ListenerManager manager) {
+        ListenerManager dataManager = new ListenerManager(manager.getListeners().childData(), false, false);
+        dataManager.setCoalesceWindow(manager.getCoalesceWindow());
+        dataListenerPool.put(cpath, dataManager);
+    }
+
+    private ListenerHandle handle(final String path, final boolean child, final ListenerManager manager, final ListenerGroup.Entry entry) {
+        return new ListenerHandle() {
+            @Override
+            public void unlisten() throws ZkClientException {
+                if (manager.getListeners().remove(entry)) {
+                    // 最后一个监听器，移除节点的监听
+                    remove(path, child, manager);
+                }
+            }
+        };
+    }
+
+    /**
+     * 取消节点监听，移除节点上的所有监听器
      *
      * @param path      节点地址
      * @param child     true表示监听子节点变化，false表示监听节点数据变化
      * @param childData 子节点数据变化
      */
     public void unlisten(String path, boolean child, boolean childData) throws ZkClientException {
-        if (child || childData) {
-            if (zkClient.exists(path)) {
+        boolean node = child || childData;
+        ListenerManager manager = (node ? nodeListenerPool : dataListenerPool).get(path);
+        if (manager != null) {
+            manager.getListeners().close();
+            this.remove(path, node, manager);
+        }
+    }
+
+    private void remove(String path, boolean child, ListenerManager manager) throws ZkClientException {
+        if (child) {
+            nodeListenerPool.remove(path, manager);
+            if (manager.isChildDataChange() && zkClient.exists(path)) {
                 List<String> nodes = this.zkClient.getChild(path, false);
-                if (childData) {
-                    for (String node : nodes) {
-                        String childNode = path + "/" + node;
-                        dataListenerPool.remove(childNode);
-                        this.zkClient.getData(childNode, false);
-                    }
+                for (String node : nodes) {
+                    String childNode = path + "/" + node;
+                    dataListenerPool.remove(childNode);
+                    this.zkClient.getData(childNode, false);
                 }
             }
-            nodeListenerPool.remove(path);
         } else {
+            dataListenerPool.remove(path, manager);
             if (zkClient.exists(path)) {
                 this.zkClient.getData(path, false);
             }
-            dataListenerPool.remove(path);
         }
     }
 
     /**
-     * 当session超时重连后，重新注册监听事件
+     * 当session超时重连后，重新注册监听事件、重建顽固节点
+     * 以流水线方式异步执行，最多recoveryMaxInFlight个请求同时在途，设置了recoveryRate时按速率发送；
+     * 顽固节点按批通过multi创建，先于监听发送
+     *
+     * @return 恢复完成时结束
+     */
+    public CompletableFuture<Void> relisten() {
+        final long start = System.nanoTime();
+        List<Supplier<CompletableFuture<Void>>> tasks = new ArrayList<Supplier<CompletableFuture<Void>>>();
+        List<Node> stubborns = new ArrayList<Node>(stubbornNodePool.values());
+        for (int i = 0; i < stubborns.size(); i += STUBBORN_BATCH_SIZE) {
+            final List<Node> batch = stubborns.subList(i, Math.min(i + STUBBORN_BATCH_SIZE, stubborns.size()));
+            tasks.add(new Supplier<CompletableFuture<Void>>() {
+                @Override
+                public CompletableFuture<Void> get() {
+                    return recreate(batch);
+                }
+            });
+        }
+        for (final String path : dataListenerPool.keySet()) {
+            tasks.add(new Supplier<CompletableFuture<Void>>() {
+                @Override
+                public CompletableFuture<Void> get() {
+                    return refreshDataAsync(path);
+                }
+            });
+        }
+        for (final String path : nodeListenerPool.keySet()) {
+            tasks.add(new Supplier<CompletableFuture<Void>>() {
+                @Override
+                public CompletableFuture<Void> get() {
+                    return relistenChild(path);
+                }
+            });
+        }
+        final int watches = tasks.size() - (stubborns.size() + STUBBORN_BATCH_SIZE - 1) / STUBBORN_BATCH_SIZE;
+        final int stubbornNodes = stubborns.size();
+        final AtomicInteger failures = new AtomicInteger();
+        Pipeline.RateLimiter limiter = recoveryRate > 0 ? new Pipeline.RateLimiter(recoveryRate) : null;
+        CompletableFuture<Void> done = new Pipeline<Supplier<CompletableFuture<Void>>, Void>(tasks, recoveryMaxInFlight, limiter) {
+            @Override
+            CompletableFuture<Void> send(Supplier<CompletableFuture<Void>> task) {
+                return task.get();
+            }
+
+            @Override
+            void completed(Supplier<CompletableFuture<Void>> task, Void result, Throwable error) {
+                if (error != null) {
+                    failures.incrementAndGet();
+                    LOGGER.warn("Recover after session expired error.", error);
+                }
+            }
+        }.start();
+        for (TreeCache cache : caches) {
+            cache.rebuild();
+        }
+        return done.whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void v, Throwable throwable) {
+                long nanos = System.nanoTime() - start;
+                zkClient.getMetrics().record("recovery", null, nanos, 0,
+                        failures.get() == 0 ? KeeperException.Code.OK : KeeperException.Code.SYSTEMERROR);
+                LOGGER.warn("Recover {} watches and {} stubborn nodes in {} ms, failures:{}", watches, stubbornNodes,
+                        TimeUnit.NANOSECONDS.toMillis(nanos), failures.get());
+                for (RecoveryListener listener : recoveryListeners) {
+                    try {
+                        listener.recovered(TimeUnit.NANOSECONDS.toMillis(nanos), watches, stubbornNodes, failures.get());
+                    } catch (Exception e) {
+                        LOGGER.error("Invoker recovery listener error.", e);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * 重新注册子节点监听，并比较子节点变化
+     */
+    private CompletableFuture<Void> relistenChild(final String path) {
+        final Stat stat = new Stat();
+        return this.zkClient.getChildAsync(path, true, stat).thenAccept(new Consumer<List<String>>() {
+            @Override
+            public void accept(List<String> children) {
+                ListenerManager manager = nodeListenerPool.get(path);
+                if (manager == null) {
+                    return;
+                }
+                try {
+                    diff(path, children, stat, manager, false);
+                    LOGGER.debug("Relisten child node:{}", path);
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * 通过异步multi批量重建顽固节点；批量创建失败（如部分节点已存在）时逐个创建，忽略已存在的节点
+     */
+    private CompletableFuture<Void> recreate(final List<Node> nodes) {
+        ZkTransaction transaction = this.zkClient.transaction();
+        for (Node node : nodes) {
+            transaction.create(node.getPath(), node.getData(), CreateMode.EPHEMERAL);
+        }
+        return transaction.commitAsync().handle(new BiFunction<List<OpResult>, Throwable, CompletableFuture<Void>>() {
+            @Override
+            public CompletableFuture<Void> apply(List<OpResult> results, Throwable throwable) {
+                if (throwable == null) {
+                    LOGGER.debug("Recreate {} stubborn nodes.", nodes.size());
+                    return CompletableFuture.completedFuture(null);
+                }
+                Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+                if (cause instanceof ZkTransactionException) {
+                    LOGGER.debug("Recreate stubborn nodes in batch fail, retry one by one.", cause);
+                    return recreateEach(nodes);
+                }
+                CompletableFuture<Void> failed = new CompletableFuture<Void>();
+                failed.completeExceptionally(cause);
+                return failed;
+            }
+        }).thenCompose(new Function<CompletableFuture<Void>, CompletionStage<Void>>() {
+            @Override
+            public CompletionStage<Void> apply(CompletableFuture<Void> future) {
+                return future;
+            }
+        });
+    }
+
+    /**
+     * 逐个创建顽固节点，忽略已存在的节点
+     */
+    private CompletableFuture<Void> recreateEach(List<Node> nodes) {
+        List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>();
+        for (final Node node : nodes) {
+            futures.add(this.zkClient.createAsync(node.getPath(), node.getData(), CreateMode.EPHEMERAL).handle(new BiFunction<String, Throwable, Void>() {
+                @Override
+                public Void apply(String name, Throwable throwable) {
+                    if (throwable == null) {
+                        LOGGER.debug("Recreate (stubborn node) node:{}", node.getPath());
+                        return null;
+                    }
+                    Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+                    if (cause instanceof ZkClientException && ((ZkClientException) cause).getCode() == KeeperException.Code.NODEEXISTS) {
+                        return null;
+                    }
+                    throw new CompletionException(cause);
+                }
+            }));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]));
+    }
+
+    /**
+     * 设置会话恢复时的并发和速率
+     *
+     * @param maxInFlight 最大在途请求数
+     * @param rate        每秒请求数，0表示不限速
+     */
+    public void setRecovery(int maxInFlight, int rate) {
+        this.recoveryMaxInFlight = maxInFlight;
+        this.recoveryRate = rate;
+    }
+
+    /**
+     * 添加会话恢复完成的监听器
+     *
+     * @param listener 监听器
+     */
+    public void listenRecovery(RecoveryListener listener) {
+        recoveryListeners.add(listener);
+    }
+
+    public void unlistenRecovery(RecoveryListener listener) {
+        recoveryListeners.remove(listener);
+    }
+
+    /**
+     * 添加子树缓存
+     *
+     * @param cache 缓存
+     */
+    public void addCache(TreeCache cache) {
+        caches.add(cache);
+    }
+
+    /**
+     * 移除子树缓存
+     *
+     * @param root 缓存的根节点
+     * @return 被移除的缓存，不存在时返回null
+     */
+    public TreeCache removeCache(String root) {
+        for (TreeCache cache : caches) {
+            if (cache.getRoot().equals(root)) {
+                caches.remove(cache);
+                return cache;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 获取包含该路径且能回答该路径读取的可用缓存
+     *
+     * @param path 节点路径
+     * @return 不存在或节点尚未加载完成时返回null，由调用方读取服务端
      */
-    public void relisten() throws ZkClientException {
-        for (Map.Entry<String, ListenerManager> entry : dataListenerPool.entrySet()) {
-            this.dataChange(entry.getKey());
-            LOGGER.debug("Relisten data node:{}", entry.getKey());
+    public TreeCache getCache(String path) {
+        for (TreeCache cache : caches) {
+            if (cache.isReady() && cache.covers(path) && cache.canServe(path)) {
+                return cache;
+            }
         }
-        for (Map.Entry<String, ListenerManager> entry : nodeListenerPool.entrySet()) {
-            this.childChange(entry.getKey(), false);
-            LOGGER.debug("Relisten child node:{}", entry.getKey());
+        return null;
+    }
+
+    /**
+     * 将节点事件分发给子树缓存
+     *
+     * @param event 节点事件
+     */
+    public void cacheChange(WatchedEvent event) {
+        for (TreeCache cache : caches) {
+            cache.process(event);
         }
-        for (Map.Entry<String, Node> entry : stubbornNodePool.entrySet()) {
-            Node node = entry.getValue();
-            this.zkClient.create(node.getPath(), node.getData(), false);
-            LOGGER.debug("Recreate (stubborn node) node:{}", entry.getKey());
+    }
+
+    /**
+     * 连接恢复后重建刷新失败的缓存
+     */
+    public void cacheReconnect() {
+        for (TreeCache cache : caches) {
+            if (!cache.isReady()) {
+                cache.rebuild();
+            }
         }
     }
 
@@ -150,25 +591,242 @@ public class WatcherProcess {
         }
     }
 
+    /**
+     * 收到节点数据变化事件
+     * 监听设置了合并窗口时，窗口结束后再读取数据并回调，
+     * 窗口内watch未重新注册，期间的多次变化只产生一次读取和回调
+     *
+     * @param path 变化的节点
+     */
+    public void dataEvent(String path) throws ZkClientException {
+        ListenerManager manager = dataListenerPool.get(path);
+        if (manager != null && manager.getCoalesceWindow() > 0) {
+            this.delay("d:" + path, path, false, manager.getCoalesceWindow());
+        } else {
+            this.dataChange(path);
+        }
+    }
+
+    /**
+     * 收到子节点变化事件
+     * 监听设置了合并窗口时，窗口结束后再读取子节点，回调窗口内净增加和净删除的子节点
+     *
+     * @param path 节点路径
+     */
+    public void childEvent(String path) throws ZkClientException {
+        ListenerManager manager = nodeListenerPool.get(path);
+        if (manager != null && manager.getCoalesceWindow() > 0) {
+            this.delay("c:" + path, path, true, manager.getCoalesceWindow());
+        } else {
+            this.childChange(path, false);
+        }
+    }
+
+    private void delay(String key, final String path, final boolean child, long window) {
+        if (!pendingRefresh.add(key)) {
+            return;
+        }
+        final String pending = key;
+        COALESCE_SCHEDULER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                pendingRefresh.remove(pending);
+                try {
+                    if (child) {
+                        childChange(path, false);
+                    } else {
+                        dataChange(path);
+                    }
+                } catch (Exception e) {
+                    LOGGER.error("Coalesced change error, node:{}", path, e);
+                }
+            }
+        }, window, TimeUnit.MILLISECONDS);
+    }
+
     /**
      * 节点数据变化处理函数
      *
      * @param path 变化的节点
      */
     public void dataChange(String path) throws ZkClientException {
+        this.refreshData(path, false);
+    }
+
+    /**
+     * 读取节点数据并重新注册watch，与上次读取的状态比较后回调
+     *
+     * @param path 节点路径
+     * @param init 初次监听时回调当前数据，节点不存在时抛出异常
+     */
+    private void refreshData(String path, boolean init) throws ZkClientException {
+        if (!dataListenerPool.containsKey(path)) {
+            return;
+        }
+        Stat stat = new Stat();
+        byte[] data;
         try {
-            if (dataListenerPool.containsKey(path)) {
-                byte[] data = this.zkClient.getData(path, true);
-                ListenerManager manager = dataListenerPool.get(path);
-                ListenerManager lm = new ListenerManager(manager.getListener());
-                lm.setData(data);
-                lm.setEventType(EventType.NodeDataChanged);
-                listenerPool.invoker(path, lm);
-                LOGGER.debug("node:{} data change.", path);
-            }
+            data = this.zkClient.getData(path, true, stat);
         } catch (Exception e) {
-            throw new ZkClientException("Listener data change error.", e);
+            if (init || !isNoNode(e)) {
+                throw new ZkClientException("Listener data change error.", e);
+            }
+            this.reconcileData(path, null, null, false);
+            this.watchAbsent(path);
+            return;
+        }
+        this.reconcileData(path, data, stat, init);
+    }
+
+    /**
+     * 异步读取节点数据并重新注册watch，与上次读取的状态比较后回调
+     * 不阻塞调用线程，用于重连后的恢复
+     *
+     * @param path 节点路径
+     */
+    private CompletableFuture<Void> refreshDataAsync(final String path) {
+        final Stat stat = new Stat();
+        return this.zkClient.getDataAsync(path, true, stat).handle(new BiFunction<byte[], Throwable, CompletableFuture<Void>>() {
+            @Override
+            public CompletableFuture<Void> apply(byte[] data, Throwable throwable) {
+                if (throwable == null) {
+                    reconcileData(path, data, stat, false);
+                    return CompletableFuture.completedFuture(null);
+                }
+                Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+                if (isNoNode(cause)) {
+                    reconcileData(path, null, null, false);
+                    return watchAbsent(path);
+                }
+                CompletableFuture<Void> failed = new CompletableFuture<Void>();
+                failed.completeExceptionally(cause);
+                return failed;
+            }
+        }).thenCompose(new Function<CompletableFuture<Void>, CompletableFuture<Void>>() {
+            @Override
+            public CompletableFuture<Void> apply(CompletableFuture<Void> future) {
+                return future;
+            }
+        });
+    }
+
+    /**
+     * 监听的节点不存在时注册exists watch，节点创建后读取数据并回调NodeCreated
+     * 子节点数据监听不注册，子节点的创建由父节点的子节点监听回调
+     *
+     * @param path 节点路径
+     */
+    private CompletableFuture<Void> watchAbsent(final String path) {
+        if (this.isChildData(path) || !dataListenerPool.containsKey(path)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return this.zkClient.existsAsync(path, true).thenCompose(new Function<Boolean, CompletableFuture<Void>>() {
+            @Override
+            public CompletableFuture<Void> apply(Boolean exists) {
+                // 读取数据失败后、注册exists之前节点已被创建，不会再收到NodeCreated事件
+                return exists ? refreshDataAsync(path) : CompletableFuture.<Void>completedFuture(null);
+            }
+        });
+    }
+
+    /**
+     * 比较节点与上次读取时的状态，只回调真实发生的变化：
+     * 数据未变化（mzxid相同）不回调；节点被删除回调NodeDeleted；节点重建回调NodeDeleted和NodeCreated
+     * 子节点数据监听的删除由父节点的子节点监听回调
+     *
+     * @param path 节点路径
+     * @param data 节点数据
+     * @param stat 节点状态，节点不存在时为null
+     * @param init 初次监听，回调当前数据
+     */
+    private void reconcileData(String path, byte[] data, Stat stat, boolean init) {
+        ListenerManager manager = dataListenerPool.get(path);
+        if (manager == null) {
+            return;
+        }
+        EventType type;
+        boolean recreated;
+        synchronized (manager) {
+            boolean existed = manager.getDataStat() != null;
+            type = manager.dataDelta(stat);
+            if (init) {
+                type = EventType.NodeDataChanged;
+            }
+            recreated = existed && type == EventType.NodeCreated;
+        }
+        if (type == null) {
+            LOGGER.debug("node:{} data unchanged.", path);
+            return;
+        }
+        if (type == EventType.NodeDeleted && this.isChildData(path)) {
+            return;
+        }
+        if (recreated) {
+            this.deliverData(path, null, EventType.NodeDeleted);
+        }
+        this.deliverData(path, data, type);
+    }
+
+    /**
+     * 回调节点数据变化
+     *
+     * @param path 变化的节点
+     * @param data 节点数据，删除时为null
+     * @param type 事件类型
+     */
+    private void deliverData(String path, byte[] data, EventType type) {
+        ListenerManager manager = dataListenerPool.get(path);
+        if (manager == null) {
+            return;
+        }
+        if (manager.getBatchListener() != null) {
+            // 批量监听的数据变化只来自子节点，合并到父节点的批量回调中
+            List<Node> created = new ArrayList<Node>();
+            List<Node> deleted = new ArrayList<Node>();
+            List<Node> changed = new ArrayList<Node>();
+            if (type == EventType.NodeCreated) {
+                created.add(new Node(path, data));
+            } else if (type == EventType.NodeDeleted) {
+                deleted.add(new Node(path, null));
+            } else {
+                changed.add(new Node(path, data));
+            }
+            listenerPool.invoker(this.orderKey(path), path.substring(0, path.lastIndexOf('/')), manager.getBatchListener(),
+                    created, deleted, changed);
         }
+        if (manager.getListener() == null) {
+            return;
+        }
+        ListenerManager lm = new ListenerManager(manager.getListener());
+        lm.setData(data);
+        lm.setEventType(type);
+        listenerPool.invoker(this.orderKey(path), path, lm);
+        LOGGER.debug("node:{} data change, type:{}", path, type);
+    }
+
+    /**
+     * 数据变化回调的顺序key
+     * 父节点监听了子节点数据时按父节点排序，保证子节点的创建、数据变化、删除按顺序回调
+     *
+     * @param path 变化的节点
+     * @return 顺序key
+     */
+    private String orderKey(String path) {
+        return this.isChildData(path) ? path.substring(0, path.lastIndexOf('/')) : path;
+    }
+
+    /**
+     * 是否是父节点监听子节点数据时注册的数据监听
+     *
+     * @param path 节点路径
+     */
+    private boolean isChildData(String path) {
+        int index = path.lastIndexOf('/');
+        if (index > 0) {
+            ListenerManager manager = nodeListenerPool.get(path.substring(0, index));
+            return manager != null && manager.isChildDataChange();
+        }
+        return false;
     }
 
     /**
@@ -182,12 +840,12 @@ public class WatcherProcess {
         if (nodeListenerPool.containsKey(path)) {
             try {
                 // 获取到当前最新的所有子节点，且重新设置 getChild的触发器watch
-                List<String> changeNodes = this.zkClient.getChild(path, true);
+                Stat stat = new Stat();
+                List<String> changeNodes = this.zkClient.getChild(path, true, stat);
                 // nodeListenerPool保存着的manager时上一步（zkCline.listen（））存入的，
                 // 触发器调用时不经过这一步
                 ListenerManager manager = nodeListenerPool.get(path);
-                this.diff(path, changeNodes, manager, init);
-                // manager.setChildNode(oldNodes);
+                this.diff(path, changeNodes, stat, manager, init);
             } catch (Exception e) {
                 throw new ZkClientException("Listener client node change error.", e);
             }
@@ -196,65 +854,249 @@ public class WatcherProcess {
 
     /**
      * 检查子节点变化
+     * 子节点按排序数组保存，归并比较得到增加和删除的子节点，只为变化的子节点拼接路径；
+     * 新增子节点的数据通过异步请求流水线读取，按完成顺序回调；
+     * 同一父节点的多次刷新按顺序回调，上一次刷新的数据读取完成后才开始下一次
      *
      * @param changeList 变化后的子节点集合
+     * @param stat       读取子节点时父节点的状态
      * @return
      */
-    private void diff(String path, List<String> changeList, ListenerManager manager, boolean init) throws ZkClientException, SocketException {
-        if (changeList == null) {
-            changeList = new ArrayList<String>();
-        }
-        Map<String, Boolean> changeMap = new HashMap<String, Boolean>(changeList.size());
-        Map<String, Boolean> oldMap = manager.getChildNode();
-        for (String node : changeList) {
-            changeMap.put(node, true);
-            // 其中oldMap中所有entry为（oldNode,false）
-            Boolean status = oldMap.get(node);
-            // 如果为null，说明该子节点是新增的子节点
-            if (status == null) {
-                // 新的node加入 oldNode，并设置为true
-                oldMap.put(node, true);
-                String cpath = path + "/" + node;
-                if (manager.isChildChange() || manager.isChildDataChange()) {
-                    ListenerManager lm = new ListenerManager(manager.getListener());
-                    byte[] data = zkClient.getData(cpath, manager.isChildDataChange());
+    private void diff(final String path, List<String> changeList, Stat stat, final ListenerManager manager, boolean init) throws ZkClientException, SocketException {
+        List<String> createdNodes = new ArrayList<String>();
+        List<String> deletedNodes = new ArrayList<String>();
+        CompletableFuture<Void> previous;
+        final CompletableFuture<Void> refresh = new CompletableFuture<Void>();
+        // 事件线程、合并窗口线程和重连时可能同时刷新同一节点
+        synchronized (manager) {
+            // 父节点的cversion、pzxid未变化（如重连后重新注册），跳过比较
+            if (manager.isChildUnchanged(stat)) {
+                LOGGER.debug("node:{} children unchanged, cversion:{}", path, stat.getCversion());
+                return;
+            }
+            String[] current = ChildDiff.sort(changeList);
+            ChildDiff.diff(manager.getChildren(), current, createdNodes, deletedNodes);
+            manager.setChildren(current);
+            manager.setChildStat(stat);
+            if (createdNodes.isEmpty() && deletedNodes.isEmpty()) {
+                return;
+            }
+            previous = manager.getRefresh();
+            manager.setRefresh(refresh);
+        }
+        final List<String> created = new ArrayList<String>(createdNodes.size());
+        for (String node : createdNodes) {
+            String cpath = path + "/" + node;
+            created.add(cpath);
+            // 查看数据的变化
+            if (manager.isChildDataChange()) {
+                this.listenChildData(cpath, manager);
+            }
+            LOGGER.debug("node:{} child change,type:node-create", node);
+        }
+        final List<String> deleted = new ArrayList<String>(deletedNodes.size());
+        for (String node : deletedNodes) {
+            deleted.add(path + "/" + node);
+            LOGGER.debug("node:{} child change,type:node-delete", node);
+        }
+        if (init && !isEventThread()) {
+            //初次监听，在调用线程中列出所有节点
+            try {
+                if (previous != null) {
+                    previous.get();
+                }
+                this.deliverInline(path, created, deleted, manager);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ZkClientException("Listen child node " + path + " interrupted.", e);
+            } catch (ExecutionException e) {
+                LOGGER.warn("Previous refresh of node:{} failed.", path, e.getCause());
+            } finally {
+                refresh.complete(null);
+            }
+            return;
+        }
+        if (previous == null || previous.isDone()) {
+            this.deliverAsync(path, created, deleted, manager, refresh);
+        } else {
+            previous.whenComplete(new BiConsumer<Void, Throwable>() {
+                @Override
+                public void accept(Void v, Throwable throwable) {
+                    deliverAsync(path, created, deleted, manager, refresh);
+                }
+            });
+        }
+    }
+
+    /**
+     * 读取新增子节点的数据，每个子节点读取完成时提交到回调线程池，全部完成后回调删除的子节点
+     * 不阻塞调用线程，可以在zookeeper事件线程中调用
+     */
+    private void deliverAsync(final String path, List<String> created, final List<String> deleted, final ListenerManager manager,
+                              final CompletableFuture<Void> refresh) {
+        final BatchListener batchListener = manager.getBatchListener();
+        final Listener listener = manager.getListener();
+        final List<Node> createdData = new ArrayList<Node>();
+        new ChildDataFetch(created, manager.isChildDataChange()) {
+            @Override
+            void received(String cpath, byte[] data) {
+                if (batchListener != null) {
+                    synchronized (createdData) {
+                        createdData.add(new Node(cpath, data));
+                    }
+                }
+                if (listener != null) {
+                    ListenerManager lm = new ListenerManager(listener);
                     lm.setData(data);
                     lm.setEventType(EventType.NodeCreated);
-                    if (!init) {
-                        listenerPool.invoker(cpath, lm);
-                    } else {
-                        //初次监听，列出所有节点
-                        manager.getListener().listen(cpath, EventType.NodeCreated, data);
-                    }
+                    listenerPool.invoker(path, cpath, lm);
                 }
-                // 查看数据的变化
-                if (manager.isChildDataChange()) {
-                    //listen(cpath, manager.getListener(), false, false);
-                    ListenerManager dataManager = new ListenerManager(manager.getListener(), false, false);
-                    dataListenerPool.put(cpath, dataManager);
+            }
+        }.start().whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void v, Throwable throwable) {
+                try {
+                    if (throwable != null) {
+                        LOGGER.error("Fetch child data of node:{} error.", path, throwable);
+                    }
+                    synchronized (createdData) {
+                        deliverDeleted(path, createdData, deleted, manager, false);
+                    }
+                } catch (Exception e) {
+                    LOGGER.error("Listener client node change error.", e);
+                } finally {
+                    refresh.complete(null);
                 }
-                LOGGER.debug("node:{} child change,type:node-create", node);
             }
+        });
+    }
+
+    /**
+     * 读取新增子节点的数据，在调用线程中按完成顺序回调监听器
+     */
+    private void deliverInline(String path, List<String> created, List<String> deleted, ListenerManager manager)
+            throws ZkClientException, SocketException, InterruptedException {
+        final BlockingQueue<Node> results = new LinkedBlockingQueue<Node>();
+        CompletableFuture<Void> done = new ChildDataFetch(created, manager.isChildDataChange()) {
+            @Override
+            void received(String cpath, byte[] data) {
+                results.add(new Node(cpath, data));
+            }
+        }.start();
+        done.whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void v, Throwable throwable) {
+                results.add(FETCH_END);
+            }
+        });
+        BatchListener batchListener = manager.getBatchListener();
+        Listener listener = manager.getListener();
+        List<Node> createdData = new ArrayList<Node>();
+        Node node;
+        while ((node = results.take()) != FETCH_END) {
+            if (batchListener != null) {
+                createdData.add(node);
+            }
+            if (listener != null) {
+                listener.listen(node.getPath(), EventType.NodeCreated, node.getData());
+            }
+        }
+        try {
+            done.get();
+        } catch (ExecutionException e) {
+            throw new ZkClientException("Fetch child data of node " + path, (Exception) e.getCause());
         }
+        this.deliverDeleted(path, createdData, deleted, manager, true);
+    }
 
-        for (Map.Entry<String, Boolean> entry : oldMap.entrySet()) {
-            if (!changeMap.containsKey(entry.getKey())) {
-                oldMap.remove(entry.getKey());
-                String cpath = path + "/" + entry.getKey();
-                if (manager.isChildDataChange()) {
-                    unlisten(cpath, false, false);
-                }
-                ListenerManager lm = new ListenerManager(manager.getListener());
+    /**
+     * 回调删除的子节点；批量监听时与新增的子节点合并为一次回调
+     */
+    private void deliverDeleted(String path, List<Node> created, List<String> deleted, ListenerManager manager, boolean inline)
+            throws ZkClientException {
+        BatchListener batchListener = manager.getBatchListener();
+        Listener listener = manager.getListener();
+        List<Node> deletedData = new ArrayList<Node>(deleted.size());
+        for (String cpath : deleted) {
+            if (manager.isChildDataChange()) {
+                unlisten(cpath, false, false);
+            }
+            if (batchListener != null) {
+                deletedData.add(new Node(cpath, null));
+            }
+            if (listener != null) {
+                ListenerManager lm = new ListenerManager(listener);
                 lm.setData(new byte[1]);
                 lm.setEventType(EventType.NodeDeleted);
-                listenerPool.invoker(cpath, lm);
-                LOGGER.debug("node:{} child change,type:node-delete", entry.getKey());
+                listenerPool.invoker(path, cpath, lm);
+            }
+        }
+        if (batchListener != null && (!created.isEmpty() || !deletedData.isEmpty())) {
+            if (inline) {
+                batchListener.listen(path, new ArrayList<Node>(created), deletedData, new ArrayList<Node>());
+            } else {
+                listenerPool.invoker(path, path, batchListener, new ArrayList<Node>(created), deletedData, new ArrayList<Node>());
+            }
+        }
+    }
+
+    private static boolean isEventThread() {
+        return Thread.currentThread().getName().endsWith("-EventThread");
+    }
+
+    /**
+     * 流水线读取子节点数据，读取时节点已删除的子节点不回调
+     */
+    private abstract class ChildDataFetch extends Pipeline<String, byte[]> {
+        private final boolean watch;
+
+        ChildDataFetch(List<String> paths, boolean watch) {
+            super(paths, MAX_FETCH_IN_FLIGHT, null);
+            this.watch = watch;
+        }
+
+        /**
+         * 读取成功时回调，在zookeeper事件线程或调用线程中执行
+         */
+        abstract void received(String cpath, byte[] data);
+
+        @Override
+        CompletableFuture<byte[]> send(final String cpath) {
+            if (!watch) {
+                return zkClient.getDataAsync(cpath, false);
+            }
+            // 监听子节点数据时记录节点状态，重连后与之比较
+            final Stat stat = new Stat();
+            return zkClient.getDataAsync(cpath, true, stat).thenApply(new Function<byte[], byte[]>() {
+                @Override
+                public byte[] apply(byte[] data) {
+                    ListenerManager manager = dataListenerPool.get(cpath);
+                    if (manager != null) {
+                        synchronized (manager) {
+                            manager.dataDelta(stat);
+                        }
+                    }
+                    return data;
+                }
+            });
+        }
+
+        @Override
+        void completed(String cpath, byte[] data, Throwable error) {
+            if (error == null) {
+                this.received(cpath, data);
+            } else if (isNoNode(error)) {
+                LOGGER.debug("node:{} deleted before data fetched.", cpath);
             } else {
-                oldMap.put(entry.getKey(), false);
+                this.fail(error);
             }
         }
     }
 
+    private static boolean isNoNode(Throwable error) {
+        return error instanceof ZkClientException && ((ZkClientException) error).getCode() == KeeperException.Code.NONODE;
+    }
+
     /**
      * 创建一个顽固的临时节点，当会话断开时删除，重连后自动创建
      *
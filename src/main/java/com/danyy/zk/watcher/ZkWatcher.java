@@ -53,6 +53,7 @@ public class ZkWatcher implements Watcher, AsyncCallback.ChildrenCallback {
                     connLock.release();
                     LOGGER.warn("Zookeeper connection or retry success......");
                     System.out.println("连接成功");
+                    this.cacheReconnect();
                 }
                 break;
             //会话超时
@@ -71,13 +72,18 @@ public class ZkWatcher implements Watcher, AsyncCallback.ChildrenCallback {
                 System.out.println("Zookeeper state: " + event.getState());
                 break;
         }
+        if (event.getPath() != null) {
+            this.cacheChange(event);
+        }
         switch (event.getType()) {
             //子节点变化
             case NodeChildrenChanged:
                 this.childChange(event.getPath());
                 break;
-            //节点数据变化
+            //节点数据变化，数据监听的节点被删除或（删除后）被创建
             case NodeDataChanged:
+            case NodeDeleted:
+            case NodeCreated:
                 this.dataChange(event.getPath());
                 break;
                 default:
@@ -106,7 +112,7 @@ public class ZkWatcher implements Watcher, AsyncCallback.ChildrenCallback {
      */
     private void dataChange(String path) {
         try {
-            process.dataChange(path);
+            process.dataEvent(path);
         } catch (ZkClientException e) {
             LOGGER.error("Data change watcher exception.", e);
         }
@@ -119,12 +125,34 @@ public class ZkWatcher implements Watcher, AsyncCallback.ChildrenCallback {
      */
     private void childChange(String path) {
         try {
-            process.childChange(path, false);
+            process.childEvent(path);
         } catch (ZkClientException e) {
             LOGGER.error("Child change watcher exception.", e);
         }
     }
 
+    /**
+     * 节点事件交给子树缓存处理
+     *
+     * @param event
+     */
+    private void cacheChange(WatchedEvent event) {
+        try {
+            process.cacheChange(event);
+        } catch (Exception e) {
+            LOGGER.error("Cache change watcher exception.", e);
+        }
+    }
+
+    /**
+     * 连接恢复后重建缓存
+     */
+    private void cacheReconnect() {
+        if (process != null) {
+            process.cacheReconnect();
+        }
+    }
+
     /**
      * 状态变化监听
      *
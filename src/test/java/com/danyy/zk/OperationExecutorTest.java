@@ -0,0 +1,37 @@
+package com.danyy.zk;
+
+import org.apache.zookeeper.KeeperException;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 错误是否重试的判断，不需要连接zookeeper
+ */
+public class OperationExecutorTest {
+    private final OperationExecutor executor = new OperationExecutor(null, RetryPolicy.exponentialBackoff(100, 5000, 10, 30000), null, null);
+
+    @Test
+    public void retryableError() {
+        Assert.assertTrue(executor.isRetryable(error(KeeperException.Code.CONNECTIONLOSS), false));
+        Assert.assertTrue(executor.isRetryable(error(KeeperException.Code.SESSIONEXPIRED), false));
+        Assert.assertFalse(executor.isRetryable(error(KeeperException.Code.NODEEXISTS), false));
+        Assert.assertFalse(executor.isRetryable(error(KeeperException.Code.BADVERSION), false));
+    }
+
+    @Test
+    public void sessionBound() {
+        //临时节点的创建在会话超时后不重试，连接断开仍然重试
+        Assert.assertFalse(executor.isRetryable(error(KeeperException.Code.SESSIONEXPIRED), true));
+        Assert.assertTrue(executor.isRetryable(error(KeeperException.Code.CONNECTIONLOSS), true));
+        Assert.assertTrue(executor.isRetryable(error(KeeperException.Code.OPERATIONTIMEOUT), true));
+    }
+
+    @Test
+    public void interrupted() {
+        Assert.assertFalse(executor.isRetryable(new ZkClientException("interrupted", new InterruptedException()), false));
+    }
+
+    private static ZkClientException error(KeeperException.Code code) {
+        return new ZkClientException("test", KeeperException.create(code, "/zk/test"));
+    }
+}
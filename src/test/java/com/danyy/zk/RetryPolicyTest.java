@@ -0,0 +1,73 @@
+package com.danyy.zk;
+
+import org.apache.zookeeper.KeeperException;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 重试策略，不需要连接zookeeper
+ */
+public class RetryPolicyTest {
+
+    @Test
+    public void sleepTimeBounds() {
+        RetryPolicy policy = RetryPolicy.exponentialBackoff(100, 5000, 10, 30000);
+        for (int i = 0; i < 1000; i++) {
+            assertBetween(50, 100, policy.getSleepTime(1));
+            assertBetween(100, 200, policy.getSleepTime(2));
+            assertBetween(400, 800, policy.getSleepTime(4));
+            //超过单次上限后按maxSleepMs计算
+            assertBetween(2500, 5000, policy.getSleepTime(8));
+        }
+    }
+
+    @Test
+    public void sleepTimeOverflow() {
+        //重试次数很大时退避最多翻倍30次
+        RetryPolicy policy = RetryPolicy.exponentialBackoff(1000, Long.MAX_VALUE, 100, 30000);
+        for (int retries : new int[]{31, 32, 63, 64, 1000, Integer.MAX_VALUE}) {
+            assertBetween(500L << 30, 1000L << 30, policy.getSleepTime(retries));
+        }
+        //移位会溢出时按maxSleepMs计算
+        policy = RetryPolicy.exponentialBackoff(Long.MAX_VALUE / 4, Long.MAX_VALUE, 100, 30000);
+        assertBetween(Long.MAX_VALUE / 2, Long.MAX_VALUE, policy.getSleepTime(10));
+        policy = RetryPolicy.exponentialBackoff(3L << 40, 5L << 60, 100, 30000);
+        assertBetween(5L << 59, 5L << 60, policy.getSleepTime(31));
+        //0和负数按第一次重试计算
+        policy = RetryPolicy.exponentialBackoff(100, 5000, 10, 30000);
+        assertBetween(50, 100, policy.getSleepTime(0));
+        assertBetween(50, 100, policy.getSleepTime(-1));
+    }
+
+    @Test
+    public void allowRetry() {
+        RetryPolicy policy = RetryPolicy.exponentialBackoff(100, 5000, 3, 30000);
+        Assert.assertTrue(policy.allowRetry(1, 0));
+        Assert.assertTrue(policy.allowRetry(3, 29999));
+        Assert.assertFalse(policy.allowRetry(4, 0));
+        Assert.assertFalse(policy.allowRetry(1, 30000));
+        Assert.assertTrue(RetryPolicy.none().isNone());
+        Assert.assertFalse(RetryPolicy.none().allowRetry(1, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void illegalArgument() {
+        RetryPolicy.exponentialBackoff(100, 50, 3, 30000);
+    }
+
+    @Test
+    public void retryableCode() {
+        Assert.assertTrue(RetryPolicy.isRetryable(KeeperException.Code.CONNECTIONLOSS));
+        Assert.assertTrue(RetryPolicy.isRetryable(KeeperException.Code.OPERATIONTIMEOUT));
+        Assert.assertTrue(RetryPolicy.isRetryable(KeeperException.Code.SESSIONEXPIRED));
+        Assert.assertTrue(RetryPolicy.isRetryable(KeeperException.Code.SESSIONMOVED));
+        Assert.assertFalse(RetryPolicy.isRetryable(KeeperException.Code.NONODE));
+        Assert.assertFalse(RetryPolicy.isRetryable(KeeperException.Code.NODEEXISTS));
+        Assert.assertFalse(RetryPolicy.isRetryable(KeeperException.Code.BADVERSION));
+        Assert.assertFalse(RetryPolicy.isRetryable(KeeperException.Code.NOTEMPTY));
+    }
+
+    private static void assertBetween(long min, long max, long value) {
+        Assert.assertTrue(value + " not in [" + min + ", " + max + "]", value >= min && value <= max);
+    }
+}
@@ -1,14 +1,26 @@
 package com.danyy.zk;
 
+import com.danyy.zk.listener.BatchListener;
+import com.danyy.zk.listener.DispatchMode;
 import com.danyy.zk.listener.Listener;
+import com.danyy.zk.listener.ListenerHandle;
+import com.danyy.zk.listener.Node;
+import com.danyy.zk.listener.OverflowPolicy;
+import com.danyy.zk.listener.RecoveryListener;
 import com.danyy.zk.listener.StateListener;
+import com.danyy.zk.lock.CohortLock;
+import com.danyy.zk.lock.DistributedSemaphore;
 import com.danyy.zk.lock.Lock;
+import com.danyy.zk.lock.ReadWriteLock;
+import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.Watcher;
 import org.junit.After;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.net.SocketException;
+import java.util.List;
 
 public class ZkClientTest {
     ZkClient zk = null;
@@ -27,6 +39,113 @@ public class ZkClientTest {
         zk.create("/zk/test/1", "{test:12}".getBytes(), true);
     }
 
+    @Test
+    public void async() throws Exception {
+        zk.createAsync("/zk/async", "{test:12}".getBytes(), CreateMode.EPHEMERAL).get();
+        System.out.println(new String(zk.getDataAsync("/zk/async").get()));
+        System.out.println(zk.existsAsync("/zk/async").get());
+        zk.deleteAsync("/zk/async").get();
+    }
+
+    @Test
+    public void transaction() throws ZkClientException {
+        zk.transaction()
+                .create("/zk/tx", "1".getBytes())
+                .setData("/zk/tx", "2".getBytes())
+                .create("/zk/tx/1", "3".getBytes(), CreateMode.EPHEMERAL)
+                .commit();
+        System.out.println(new String(zk.getData("/zk/tx")));
+        zk.transaction().delete("/zk/tx/1").delete("/zk/tx").commit();
+    }
+
+    @Test
+    public void subtree() throws ZkClientException {
+        zk.create("/zk/tree/a/b", CreateMode.PERSISTENT);
+        zk.copySubtree("/zk/tree", "/zk/treecopy");
+        System.out.println(zk.exists("/zk/treecopy/a/b"));
+        zk.deleteRecursive("/zk/tree");
+        zk.deleteRecursive("/zk/treecopy");
+    }
+
+    @Test
+    public void cache() throws ZkClientException {
+        zk.cache("/a");//缓存/a子树，之后的getData/exists直接读取本地
+        System.out.println(zk.exists("/a") + "  " + new String(zk.getData("/a")));
+        zk.sync("/a");//需要读取最新数据时，先sync再直接读取服务端
+        System.out.println(new String(zk.getData("/a", false)));
+        zk.uncache("/a");
+    }
+
+    @Test
+    public void sharded() throws ZkClientException {
+        ShardedZkClient sharded = new ShardedZkClient("127.0.0.1:2181", 4);
+        //相同前缀的路径总是路由到同一个会话
+        System.out.println(sharded.getClient("/zk/a/1") == sharded.getClient("/zk/a/2"));
+        sharded.create("/zk/sharded", "1".getBytes(), CreateMode.EPHEMERAL);
+        System.out.println(new String(sharded.getData("/zk/sharded")));
+        sharded.close();
+    }
+
+    @Test
+    public void asyncConnect() throws Exception {
+        ZkClient client = ZkClient.builder("127.0.0.1:2181").asyncConnect(true).build();//立即返回，后台连接
+        client.connected().get();//等待首次连接成功
+        System.out.println(client.exists("/zk"));
+        client.close();
+    }
+
+    @Test
+    public void retry() throws ZkClientException {
+        //初始等待100ms，最长等待5s，最多重试10次，总耗时不超过30s
+        ZkClient client = ZkClient.builder("127.0.0.1:2181")
+                .retryPolicy(RetryPolicy.exponentialBackoff(100, 5000, 10, 30000))
+                .build();
+        //连接断开期间调用的操作会挂起，连接恢复后继续执行
+        System.out.println(client.exists("/zk"));
+        client.close();
+    }
+
+    @Test
+    public void metrics() throws ZkClientException {
+        ZkClient client = ZkClient.builder("127.0.0.1:2181").jmxName("test").build();
+        for (int i = 0; i < 100; i++) {
+            client.exists("/zk");
+        }
+        System.out.println(client.getMetrics().getStats("exists"));
+        client.close();
+    }
+
+    @Test
+    public void orderedListener() throws ZkClientException {
+        //同一节点的回调按顺序执行，不同节点的回调在4个线程中并行执行
+        ZkClient client = ZkClient.builder("127.0.0.1:2181")
+                .watcherThreadSize(4)
+                .dispatchMode(DispatchMode.ORDERED)
+                .build();
+        client.listenChild("/a", new Listener() {
+            public void listen(String path, Watcher.Event.EventType eventType, byte[] data) throws ZkClientException, SocketException {
+                System.out.println(Thread.currentThread().getName() + " " + path + " " + eventType.name());
+            }
+        });
+        client.close();
+    }
+
+    @Test
+    public void overflowPolicy() throws ZkClientException {
+        //回调队列满时合并同一节点的数据变化，只回调最新数据
+        ZkClient client = ZkClient.builder("127.0.0.1:2181")
+                .listenerQueueCapacity(1000)
+                .overflowPolicy(OverflowPolicy.COALESCE)
+                .build();
+        client.listenData("/a", new Listener() {
+            public void listen(String path, Watcher.Event.EventType eventType, byte[] data) throws ZkClientException, SocketException {
+                System.out.println(path + "  " + new String(data) + "   " + eventType.name());
+            }
+        });
+        System.out.println(client.getMetrics().getDispatchStats());
+        client.close();
+    }
+
     @Test
     public void listener() throws ZkClientException {
         zk.listenData("/a", new Listener() {
@@ -36,6 +155,23 @@ public class ZkClientTest {
         });
     }
 
+    @Test
+    public void listenerHandle() throws ZkClientException {
+        ListenerHandle first = zk.listenData("/a", new Listener() {
+            public void listen(String path, Watcher.Event.EventType eventType, byte[] data) throws ZkClientException, SocketException {
+                System.out.println("first " + path + "  " + eventType.name());
+            }
+        });
+        //同一节点的第二个监听器，共用一个watch
+        ListenerHandle second = zk.listenData("/a", new Listener() {
+            public void listen(String path, Watcher.Event.EventType eventType, byte[] data) throws ZkClientException, SocketException {
+                System.out.println("second " + path + "  " + eventType.name());
+            }
+        });
+        first.unlisten();
+        second.unlisten();
+    }
+
     @Test
     public void listenChild() throws ZkClientException {
         zk.listenChild("/a", new Listener() {
@@ -45,6 +181,27 @@ public class ZkClientTest {
         });
     }
 
+    @Test
+    public void listenChildCoalesce() throws ZkClientException {
+        //500ms内的子节点变化合并为一次读取，只回调净增加和净删除的子节点
+        zk.listenChild("/a", new Listener() {
+            public void listen(String path, Watcher.Event.EventType eventType, byte[] data) throws ZkClientException, SocketException {
+                System.out.println(path + " " + eventType.name());
+            }
+        }, 500);
+    }
+
+    @Test
+    public void batchListener() {
+        //子节点增删及数据变化按批回调
+        zk.listenChildData("/a", new BatchListener() {
+            @Override
+            public void listen(String path, List<Node> created, List<Node> deleted, List<Node> changed) throws ZkClientException {
+                System.out.println(path + " created:" + created + " deleted:" + deleted + " changed:" + changed);
+            }
+        }, 500);
+    }
+
     @Test
     public void listenChildData() {
         zk.listenChildData("/a", new Listener() {
@@ -74,6 +231,16 @@ public class ZkClientTest {
         });
     }
 
+    @Test
+    public void listenRecovery() {
+        zk.listenRecovery(new RecoveryListener() {
+            @Override
+            public void recovered(long durationMillis, int watches, int stubbornNodes, int failures) {
+                System.out.println("recovered " + watches + " watches, " + stubbornNodes + " stubborn nodes in " + durationMillis + "ms");
+            }
+        });
+    }
+
     @Test
     public void lock() {
         final Lock lock = zk.getLock("/zk/lock"); //创建锁对象
@@ -87,6 +254,119 @@ public class ZkClientTest {
         //不在使用时要销毁这个锁
         lock.destroy();
     }
+
+    @Test
+    public void lockPerPath() {
+        //不同路径的锁互不影响，同一路径返回同一个锁对象
+        final Lock tenantA = zk.getLock("/zk/lock/tenant-a");
+        final Lock tenantB = zk.getLock("/zk/lock/tenant-b");
+        Assert.assertSame(tenantA, zk.getLock("/zk/lock/tenant-a"));
+        Assert.assertTrue(tenantA.lock(0));
+        try {
+            Assert.assertTrue(tenantB.lock(0));
+            tenantB.unlock();
+        } finally {
+            tenantA.unlock();
+        }
+    }
+
+    @Test
+    public void cohortLock() throws ZkClientException {
+        //同一进程的线程先在本地排队，锁节点最多连续交给本地线程64次后再删除
+        ZkClient client = ZkClient.builder("127.0.0.1:2181").lockCohort(64).build();
+        Lock lock = client.getLock("/zk/cohort");
+        Assert.assertTrue(lock instanceof CohortLock);
+        if (lock.lock(1000)) {
+            try {
+                //处理业务
+            } finally {
+                lock.unlock();
+            }
+        }
+        client.close();
+    }
+
+    @Test
+    public void cohortLockReentrant() throws ZkClientException {
+        //持有getLock()的锁时，再用getSequenceLock()加同一路径的锁直接重入，不会排在自己的节点后面
+        ZkClient client = ZkClient.builder("127.0.0.1:2181").lockCohort(64).build();
+        Lock cohort = client.getLock("/zk/cohort");
+        Lock sequence = client.getSequenceLock("/zk/cohort");
+        Assert.assertTrue(cohort.lock(1000));
+        try {
+            Assert.assertTrue(sequence.lock(1000));
+            sequence.unlock();
+        } finally {
+            cohort.unlock();
+        }
+        Assert.assertTrue(client.getChild("/zk/cohort", false).isEmpty());
+        client.close();
+    }
+
+    @Test
+    public void sequenceLock() {
+        final Lock lock = zk.getSequenceLock("/zk/seqlock");
+        if (lock.lock(1000)) {//只监听前一个节点，释放锁时只唤醒下一个等待者
+            try {
+                //处理业务
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Test
+    public void readWriteLock() {
+        final ReadWriteLock lock = zk.getReadWriteLock("/zk/rwlock");
+        if (lock.readLock().lock(1000)) {//读锁之间不互斥，只等待排在前面的写锁
+            try {
+                //读取数据
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        if (lock.writeLock().lock(1000)) {
+            try {
+                //修改数据
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    @Test
+    public void readWriteLockReentrant() {
+        //同一线程用不同对象加同一路径的锁时可以重入
+        final ReadWriteLock lock = zk.getReadWriteLock("/zk/rwlock");
+        Assert.assertTrue(lock.writeLock().lock(1000));
+        try {
+            Assert.assertTrue(zk.getReadWriteLock("/zk/rwlock").writeLock().lock(1000));
+            zk.getReadWriteLock("/zk/rwlock").writeLock().unlock();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Test
+    public void semaphore() {
+        //所有进程最多同时持有10个许可
+        DistributedSemaphore semaphore = zk.getSemaphore("/zk/semaphore", 10);
+        DistributedSemaphore.Lease lease = semaphore.acquire(2, 1000);
+        if (lease != null) {
+            try {
+                //访问下游服务
+            } finally {
+                lease.release();
+            }
+        }
+        //本地记录显示许可已满时直接返回null，不发送请求
+        lease = semaphore.tryAcquire();
+        if (lease != null) {
+            lease.release();
+        }
+        semaphore.close();
+    }
+
     @Test
     public void haLock(){
         final Lock lock = zk.getHaLock("/zk/halock");//创建锁对象
@@ -0,0 +1,131 @@
+package com.danyy.zk.listener;
+
+import com.danyy.zk.ZkClientException;
+import org.apache.zookeeper.Watcher;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 批量回调合并规则，不需要连接zookeeper
+ * 单分片的回调线程先被一个回调阻塞，之后提交的批量变化都追加到排队中的同一个回调
+ */
+public class ListenerProcessPoolTest {
+    private ListenerProcessPool pool;
+    private CountDownLatch gate;
+    private CountDownLatch done;
+    private final List<List<Node>> result = new ArrayList<List<Node>>();
+
+    private final BatchListener listener = new BatchListener() {
+        @Override
+        public void listen(String path, List<Node> created, List<Node> deleted, List<Node> changed) throws ZkClientException {
+            result.add(created);
+            result.add(deleted);
+            result.add(changed);
+            done.countDown();
+        }
+    };
+
+    @Before
+    public void init() {
+        pool = new ListenerProcessPool(1, DispatchMode.ORDERED);
+        gate = new CountDownLatch(1);
+        done = new CountDownLatch(1);
+        ListenerManager blocker = new ListenerManager(new Listener() {
+            @Override
+            public void listen(String path, Watcher.Event.EventType eventType, byte[] data) {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        blocker.setEventType(Watcher.Event.EventType.NodeDataChanged);
+        pool.invoker("/a", blocker);
+    }
+
+    @After
+    public void close() {
+        gate.countDown();
+    }
+
+    @Test
+    public void createThenDelete() throws InterruptedException {
+        this.append(nodes("/a/1"), none(), none());
+        this.append(none(), nodes("/a/1"), none());
+        this.await();
+        Assert.assertEquals("[]", result.get(0).toString());
+        Assert.assertEquals("[]", result.get(1).toString());
+        Assert.assertEquals("[]", result.get(2).toString());
+    }
+
+    @Test
+    public void deleteThenCreate() throws InterruptedException {
+        this.append(none(), nodes("/a/1"), none());
+        this.append(Collections.singletonList(new Node("/a/1", "2".getBytes())), none(), none());
+        this.await();
+        Assert.assertEquals("[]", result.get(0).toString());
+        Assert.assertEquals("[]", result.get(1).toString());
+        Assert.assertEquals("[/a/1]", result.get(2).toString());
+        Assert.assertEquals("2", new String(result.get(2).get(0).getData()));
+    }
+
+    @Test
+    public void changeAfterCreate() throws InterruptedException {
+        this.append(Collections.singletonList(new Node("/a/1", "1".getBytes())), none(), none());
+        this.append(none(), none(), Collections.singletonList(new Node("/a/1", "2".getBytes())));
+        this.await();
+        Assert.assertEquals("[/a/1]", result.get(0).toString());
+        Assert.assertEquals("2", new String(result.get(0).get(0).getData()));
+        Assert.assertEquals("[]", result.get(2).toString());
+    }
+
+    @Test
+    public void changeThenDelete() throws InterruptedException {
+        this.append(none(), none(), nodes("/a/1", "/a/2"));
+        this.append(none(), nodes("/a/1"), none());
+        this.await();
+        Assert.assertEquals("[]", result.get(0).toString());
+        Assert.assertEquals("[/a/1]", result.get(1).toString());
+        Assert.assertEquals("[/a/2]", result.get(2).toString());
+    }
+
+    @Test
+    public void changeKeepsLatest() throws InterruptedException {
+        this.append(none(), none(), Arrays.asList(new Node("/a/1", "1".getBytes()), new Node("/a/2", "1".getBytes())));
+        this.append(none(), none(), Collections.singletonList(new Node("/a/1", "2".getBytes())));
+        this.await();
+        Assert.assertEquals("[/a/2, /a/1]", result.get(2).toString());
+        Assert.assertEquals("2", new String(result.get(2).get(1).getData()));
+    }
+
+    private void append(List<Node> created, List<Node> deleted, List<Node> changed) {
+        pool.invoker("/a", "/a", listener, created, deleted, changed);
+    }
+
+    private void await() throws InterruptedException {
+        gate.countDown();
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    private static List<Node> nodes(String... paths) {
+        List<Node> nodes = new ArrayList<Node>(paths.length);
+        for (String path : paths) {
+            nodes.add(new Node(path, new byte[0]));
+        }
+        return nodes;
+    }
+
+    private static List<Node> none() {
+        return Collections.emptyList();
+    }
+}
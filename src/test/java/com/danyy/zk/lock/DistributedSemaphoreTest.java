@@ -0,0 +1,51 @@
+package com.danyy.zk.lock;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * 许可数解析和发放顺序，不需要连接zookeeper
+ */
+public class DistributedSemaphoreTest {
+    private final DistributedSemaphore semaphore = new DistributedSemaphore(null, "/zk/semaphore", 5);
+
+    @Test
+    public void permits() {
+        Assert.assertEquals(1, DistributedSemaphore.permits("lease-1-0000000000"));
+        Assert.assertEquals(3, DistributedSemaphore.permits("lease-3-0000000012"));
+        Assert.assertEquals(120, DistributedSemaphore.permits("lease-120-0000000012"));
+        //名称不符合格式时按1个许可计算
+        Assert.assertEquals(1, DistributedSemaphore.permits("lease-0000000012"));
+        Assert.assertEquals(1, DistributedSemaphore.permits("lease-x-0000000012"));
+        Assert.assertEquals(1, DistributedSemaphore.permits("lock-3-0000000012"));
+    }
+
+    @Test
+    public void grantedInOrder() {
+        List<String> sorted = SequenceLock.sort(Arrays.asList(
+                "lease-1-0000000003", "lease-2-0000000001", "lease-2-0000000002", "lease-1-0000000004"));
+        //按顺序号累计2+2+1=5，第4个超过许可总数
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("lease-2-0000000001", "lease-2-0000000002", "lease-1-0000000003")),
+                semaphore.granted(sorted));
+    }
+
+    @Test
+    public void grantedNoOvertaking() {
+        //排在前面的申请未满足时，后面许可数较小的申请也不能获得许可
+        List<String> sorted = SequenceLock.sort(Arrays.asList(
+                "lease-2-0000000001", "lease-4-0000000002", "lease-1-0000000003"));
+        Assert.assertEquals(Collections.singleton("lease-2-0000000001"), semaphore.granted(sorted));
+    }
+
+    @Test
+    public void grantedEmpty() {
+        Assert.assertTrue(semaphore.granted(null).isEmpty());
+        Assert.assertTrue(semaphore.granted(Collections.<String>emptyList()).isEmpty());
+        Assert.assertTrue(semaphore.granted(Collections.singletonList("lease-6-0000000001")).isEmpty());
+    }
+}
@@ -0,0 +1,190 @@
+package com.danyy.zk.lock;
+
+import com.danyy.zk.ZkClient;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 锁的负载测试：不同数量的竞争者反复加锁，统计释放锁到下一个等待者获得锁的延迟及每次加锁的读请求数
+ * 对比每个等待者只监听前一个节点的SequenceLock和所有等待者监听锁目录的方式
+ * 再对比开启进程内分组前后，多个客户端（模拟多个进程）各有多个线程竞争同一把锁时每秒的加锁次数及每次加锁的写请求数
+ * 需要本地zookeeper：127.0.0.1:2181
+ */
+public class LockBenchmark {
+
+    private static final String HOSTS = "127.0.0.1:2181";
+    private static final int CLIENTS = 8;
+    private static final int ACQUIRES = 600;
+    private static final int[] CONTENDERS = {10, 50, 100, 200};
+    private static final int PROCESSES = 4;
+    private static final int THREADS = 16;
+    private static final long DURATION = 5000;
+
+    public static void main(String[] args) throws Exception {
+        List<ZkClient> clients = new ArrayList<ZkClient>();
+        for (int i = 0; i < CLIENTS; i++) {
+            clients.add(ZkClient.builder(HOSTS).sessionTimeout(10000).build());
+        }
+        for (int contenders : CONTENDERS) {
+            run("directory", clients, contenders, false);
+            run("sequence ", clients, contenders, true);
+        }
+        for (ZkClient client : clients) {
+            client.close();
+        }
+        throughput("sequence", 0);
+        throughput("cohort  ", 64);
+    }
+
+    private static void throughput(String name, int handoffs) throws Exception {
+        final String path = "/benchmark/cohort-" + System.nanoTime();
+        final List<ZkClient> clients = new ArrayList<ZkClient>();
+        for (int i = 0; i < PROCESSES; i++) {
+            clients.add(ZkClient.builder(HOSTS).sessionTimeout(10000).lockCohort(handoffs).build());
+        }
+        final AtomicInteger acquired = new AtomicInteger();
+        final long end = System.currentTimeMillis() + DURATION;
+        final CountDownLatch done = new CountDownLatch(PROCESSES * THREADS);
+        for (int i = 0; i < PROCESSES * THREADS; i++) {
+            final Lock lock = clients.get(i % PROCESSES).getLock(path);
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (System.currentTimeMillis() < end) {
+                            lock.lock();
+                            acquired.incrementAndGet();
+                            lock.unlock();
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        done.await();
+        long creates = 0;
+        for (ZkClient client : clients) {
+            creates += client.getMetrics().getStats("create").getCount();
+        }
+        System.out.printf("%s processes=%d threads=%d acquires/sec=%8.1f creates/acquire=%5.3f%n", name, PROCESSES,
+                PROCESSES * THREADS, acquired.get() * 1000.0 / DURATION, creates / (double) acquired.get());
+        clients.get(0).deleteRecursive(path);
+        for (ZkClient client : clients) {
+            client.close();
+        }
+    }
+
+    private static void run(String name, final List<ZkClient> clients, int contenders, final boolean sequence) throws Exception {
+        final String path = "/benchmark/lock-" + System.nanoTime();
+        long reads = reads(clients);
+        final long[] latencies = new long[ACQUIRES];
+        final AtomicInteger acquired = new AtomicInteger();
+        final AtomicLong released = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(contenders);
+        for (int i = 0; i < contenders; i++) {
+            final ZkClient client = clients.get(i % clients.size());
+            final Lock lock = sequence ? new SequenceLock(client, path) : new DirectoryLock(client, path);
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (acquired.get() < ACQUIRES) {
+                            lock.lock();
+                            long now = System.nanoTime();
+                            int n = acquired.getAndIncrement();
+                            if (n < ACQUIRES && released.get() > 0) {
+                                latencies[n] = now - released.get();
+                            }
+                            released.set(System.nanoTime());
+                            lock.unlock();
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        done.await();
+        long total = 0;
+        long max = 0;
+        for (long latency : latencies) {
+            total += latency;
+            max = Math.max(max, latency);
+        }
+        System.out.printf("%s contenders=%3d handoff mean=%6.2fms max=%7.2fms reads/acquire=%6.1f%n", name, contenders,
+                total / 1e6 / ACQUIRES, max / 1e6, (reads(clients) - reads) / (double) acquired.get());
+        clients.get(0).deleteRecursive(path);
+    }
+
+    private static long reads(List<ZkClient> clients) {
+        long count = 0;
+        for (ZkClient client : clients) {
+            for (String op : new String[]{"getChildren", "exists"}) {
+                count += client.getMetrics().getStats(op).getCount();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 所有等待者都监听锁目录的子节点变化，每次加锁、释放都唤醒全部等待者重新读取子节点
+     */
+    private static class DirectoryLock implements Lock {
+        private final ZkClient client;
+        private final String lockPath;
+        private String node;
+
+        DirectoryLock(ZkClient client, String lockPath) {
+            this.client = client;
+            this.lockPath = lockPath;
+        }
+
+        @Override
+        public boolean lock() {
+            node = client.create(lockPath + "/" + SequenceLock.PREFIX, CreateMode.EPHEMERAL_SEQUENTIAL);
+            String name = node.substring(node.lastIndexOf('/') + 1);
+            try {
+                while (true) {
+                    final CountDownLatch changed = new CountDownLatch(1);
+                    List<String> nodes = client.getZookeeper().getChildren(lockPath, new Watcher() {
+                        @Override
+                        public void process(WatchedEvent event) {
+                            changed.countDown();
+                        }
+                    });
+                    // 原生请求不经过客户端统计，单独计数
+                    client.getMetrics().record("getChildren", lockPath, 0, 0, KeeperException.Code.OK);
+                    if (SequenceLock.sort(nodes).get(0).equals(name)) {
+                        return true;
+                    }
+                    changed.await();
+                }
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public boolean lock(long timeout) {
+            return lock();
+        }
+
+        @Override
+        public void unlock() {
+            client.delete(node);
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+}
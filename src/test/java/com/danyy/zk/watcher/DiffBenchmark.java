@@ -0,0 +1,101 @@
+package com.danyy.zk.watcher;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 子节点比较的微基准：10万个子节点，每次通知增加5个、删除5个
+ * 对比原来基于HashMap的比较和排序数组归并比较的耗时及每次分配的内存
+ */
+public class DiffBenchmark {
+
+    private static final int CHILDREN = 100000;
+    private static final int CHANGES = 5;
+    private static final int ROUNDS = 200;
+
+    public static void main(String[] args) {
+        List<List<String>> events = new ArrayList<List<String>>();
+        List<String> children = new ArrayList<String>();
+        for (int i = 0; i < CHILDREN; i++) {
+            children.add("node-" + i);
+        }
+        // 每次通知删除最早的5个子节点、增加5个新节点
+        int next = CHILDREN;
+        for (int r = 0; r < ROUNDS; r++) {
+            children = new ArrayList<String>(children.subList(CHANGES, children.size()));
+            for (int i = 0; i < CHANGES; i++) {
+                children.add("node-" + next++);
+            }
+            events.add(children);
+        }
+        for (int warmup = 0; warmup < 3; warmup++) {
+            hashMapDiff(events);
+            mergeDiff(events);
+        }
+        report("hashMap", hashMapDiff(events));
+        report("merge  ", mergeDiff(events));
+    }
+
+    private static long[] hashMapDiff(List<List<String>> events) {
+        Map<String, Boolean> oldMap = new ConcurrentHashMap<String, Boolean>(32);
+        for (String node : events.get(0)) {
+            oldMap.put(node, false);
+        }
+        long changes = 0;
+        long bytes = allocated();
+        long start = System.nanoTime();
+        for (List<String> changeList : events) {
+            Map<String, Boolean> changeMap = new HashMap<String, Boolean>(changeList.size());
+            for (String node : changeList) {
+                changeMap.put(node, true);
+                if (oldMap.get(node) == null) {
+                    oldMap.put(node, true);
+                    changes += ("/parent" + "/" + node).length();
+                }
+            }
+            for (Map.Entry<String, Boolean> entry : oldMap.entrySet()) {
+                if (!changeMap.containsKey(entry.getKey())) {
+                    oldMap.remove(entry.getKey());
+                    changes += ("/parent" + "/" + entry.getKey()).length();
+                } else {
+                    oldMap.put(entry.getKey(), false);
+                }
+            }
+        }
+        return new long[]{System.nanoTime() - start, allocated() - bytes, changes};
+    }
+
+    private static long[] mergeDiff(List<List<String>> events) {
+        String[] previous = ChildDiff.sort(events.get(0));
+        long changes = 0;
+        long bytes = allocated();
+        long start = System.nanoTime();
+        for (List<String> changeList : events) {
+            String[] current = ChildDiff.sort(changeList);
+            List<String> created = new ArrayList<String>();
+            List<String> deleted = new ArrayList<String>();
+            ChildDiff.diff(previous, current, created, deleted);
+            previous = current;
+            for (String node : created) {
+                changes += ("/parent" + "/" + node).length();
+            }
+            for (String node : deleted) {
+                changes += ("/parent" + "/" + node).length();
+            }
+        }
+        return new long[]{System.nanoTime() - start, allocated() - bytes, changes};
+    }
+
+    private static void report(String name, long[] result) {
+        System.out.println(name + ": " + (result[0] / ROUNDS / 1000) + " us/event, "
+                + (result[1] / ROUNDS / 1024) + " KB allocated/event (checksum " + result[2] + ")");
+    }
+
+    private static long allocated() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}